@@ -0,0 +1,34 @@
+package dev.obrienlabs.codex.radar;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+final class Benchmarks {
+    private Benchmarks() {
+    }
+
+    static void deleteTree(Path root) throws IOException {
+        if (root == null || !Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> tree = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) tree.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    // Relative path shaped like the downloader's layout: STATION/yyyyMMdd/STATIONyyyyMMdd_HHmmss.png
+    static String framePath(int station, int day, int frame) {
+        String code = stationCode(station);
+        String date = String.format("2024%02d%02d", 1 + day / 28 % 12, 1 + day % 28);
+        return String.format("%s/%s/%s%s_%02d%02d00.png", code, date, code, date, frame / 12 % 24, frame % 12 * 5);
+    }
+
+    static String stationCode(int station) {
+        return "K" + (char) ('A' + station / 676 % 26) + (char) ('A' + station / 26 % 26) + (char) ('A' + station % 26);
+    }
+}
@@ -0,0 +1,71 @@
+package dev.obrienlabs.codex.radar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DirectoryScanBenchmark {
+    private static final int DAYS = 10;
+    private static final int FRAMES_PER_DAY = 100;
+
+    @Param({"20"})
+    public int stations;
+
+    @Param({"NONE", "LEXICAL", "TIMESTAMP"})
+    public String order;
+
+    private Path root;
+
+    @Setup
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("scan-bench");
+        for (int station = 0; station < stations; station++) {
+            for (int day = 0; day < DAYS; day++) {
+                for (int frame = 0; frame < FRAMES_PER_DAY; frame++) {
+                    Path path = root.resolve(Benchmarks.framePath(station, day, frame));
+                    Files.createDirectories(path.getParent());
+                    Files.createFile(path);
+                }
+                // Non-image files the scanner has to skip.
+                Files.createFile(root.resolve(Benchmarks.framePath(station, day, 0)).resolveSibling("index.html"));
+            }
+        }
+    }
+
+    @Benchmark
+    public long scan() throws IOException {
+        long count = 0;
+        try (ImagePathLoader.Scan scan = ImagePathLoader.scan(root, ImagePathLoader.Order.valueOf(order))) {
+            while (scan.hasNext()) {
+                scan.next();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Benchmarks.deleteTree(root);
+    }
+}
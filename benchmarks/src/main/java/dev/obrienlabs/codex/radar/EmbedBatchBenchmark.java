@@ -0,0 +1,95 @@
+package dev.obrienlabs.codex.radar;
+
+import ai.djl.Model;
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.ImageFactory;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.ndarray.types.Shape;
+import ai.djl.nn.Activation;
+import ai.djl.nn.SequentialBlock;
+import ai.djl.nn.convolutional.Conv2d;
+import ai.djl.nn.core.Linear;
+import ai.djl.nn.pooling.Pool;
+import ai.djl.translate.TranslateException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// Runs the real translators against a small random-weight CNN so the benchmark needs no model download.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EmbedBatchBenchmark {
+    private static final int EMBEDDING_SIZE = 2048;
+
+    @Param({"1", "16"})
+    public int batchSize;
+
+    private EmbeddingService service;
+    private List<Image> images;
+    private PreprocessedBatch preprocessed;
+
+    @Setup
+    public void setUp() {
+        SequentialBlock block = new SequentialBlock()
+            .add(Conv2d.builder().setKernelShape(new Shape(7, 7)).optStride(new Shape(4, 4)).setFilters(64).build())
+            .add(Activation::relu)
+            .add(Conv2d.builder().setKernelShape(new Shape(3, 3)).optStride(new Shape(2, 2)).setFilters(256).build())
+            .add(Activation::relu)
+            .add(Pool.globalAvgPool2dBlock())
+            .add(Linear.builder().setUnits(EMBEDDING_SIZE).build());
+        Model model = Model.newInstance("random-embedding");
+        model.setBlock(block);
+        block.initialize(model.getNDManager(), DataType.FLOAT32,
+            new Shape(1, PreprocessedBatch.CHANNELS, EmbeddingService.CROP_SIZE, EmbeddingService.CROP_SIZE));
+        service = new EmbeddingService(model, 1);
+
+        SplittableRandom random = new SplittableRandom(5);
+        images = new ArrayList<>(batchSize);
+        preprocessed = new PreprocessedBatch(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            BufferedImage frame = new BufferedImage(600, 600, BufferedImage.TYPE_INT_RGB);
+            for (int y = 0; y < frame.getHeight(); y++) {
+                for (int x = 0; x < frame.getWidth(); x++) {
+                    frame.setRGB(x, y, random.nextInt(8) == 0 ? random.nextInt(0x1000000) : 0);
+                }
+            }
+            images.add(ImageFactory.getInstance().fromImage(frame));
+            FusedPreprocessor.preprocess(frame, preprocessed, i);
+        }
+        preprocessed.size(batchSize);
+    }
+
+    @Benchmark
+    public List<float[]> embedBatch() throws TranslateException, InterruptedException {
+        return service.embedBatch(images);
+    }
+
+    @Benchmark
+    public List<float[]> embedPreprocessed() throws TranslateException, InterruptedException {
+        return service.embedPreprocessed(preprocessed);
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.close();
+    }
+}
@@ -0,0 +1,72 @@
+package dev.obrienlabs.codex.radar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MetadataWriterBenchmark {
+    @Param({"1000000", "3000000"})
+    public int paths;
+
+    private List<String> framePaths;
+    private List<FileFingerprint> fingerprints;
+    private Path directory;
+    private Path output;
+
+    @Setup
+    public void setUp() throws IOException {
+        framePaths = new ArrayList<>(paths);
+        fingerprints = new ArrayList<>(paths);
+        SplittableRandom random = new SplittableRandom(3);
+        for (int i = 0; i < paths; i++) {
+            framePaths.add("/data/radar/" + Benchmarks.framePath(i % 160, i / 160 / 288, i / 160 % 288));
+            byte[] hash = new byte[FileFingerprint.HASH_BYTES];
+            random.nextBytes(hash);
+            fingerprints.add(new FileFingerprint(20_000 + random.nextInt(80_000), 1_714_564_800_000L + i, hash));
+        }
+        directory = Files.createTempDirectory("metadata-bench");
+        output = directory.resolve("embeddings.npy");
+    }
+
+    @Benchmark
+    public void writeMetadata() throws IOException {
+        try (MetadataWriter writer = MetadataWriter.open(output)) {
+            for (int i = 0; i < framePaths.size(); i++) {
+                writer.write(Path.of(framePaths.get(i)), fingerprints.get(i));
+            }
+        }
+    }
+
+    @Benchmark
+    public void writePathIndex() throws IOException {
+        PathIndex.write(PathIndex.pathFor(output), framePaths);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Benchmarks.deleteTree(directory);
+    }
+}
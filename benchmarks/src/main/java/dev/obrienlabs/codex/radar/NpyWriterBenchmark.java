@@ -0,0 +1,70 @@
+package dev.obrienlabs.codex.radar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class NpyWriterBenchmark {
+    private static final int DIMENSION = 2048;
+    private static final int DISTINCT_ROWS = 256;
+
+    @Param({"10000", "100000"})
+    public int rows;
+
+    @Param({"F32", "F16", "INT8"})
+    public String precision;
+
+    private float[][] embeddings;
+    private Path directory;
+    private Path output;
+
+    @Setup
+    public void setUp() throws IOException {
+        SplittableRandom random = new SplittableRandom(1);
+        embeddings = new float[DISTINCT_ROWS][DIMENSION];
+        for (float[] row : embeddings) {
+            for (int i = 0; i < DIMENSION; i++) {
+                // ResNet-50 pooled features are non-negative and mostly small.
+                row[i] = (float) Math.max(0, random.nextGaussian() * 0.5);
+            }
+        }
+        directory = Files.createTempDirectory("npy-bench");
+        output = directory.resolve("embeddings.npy");
+    }
+
+    @Benchmark
+    public long write() throws IOException {
+        try (NpyWriter writer = NpyWriter.open(output, EmbeddingPrecision.valueOf(precision))) {
+            for (int i = 0; i < rows; i++) {
+                writer.writeRow(embeddings[i % DISTINCT_ROWS]);
+            }
+            return writer.rowCount();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Benchmarks.deleteTree(directory);
+    }
+}
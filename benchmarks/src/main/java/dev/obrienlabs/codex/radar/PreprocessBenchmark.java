@@ -0,0 +1,100 @@
+package dev.obrienlabs.codex.radar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PreprocessBenchmark {
+    @Param({"600", "1200"})
+    public int size;
+
+    // "indexed" is a palette PNG, the usual encoding of NEXRAD-style products.
+    @Param({"png", "jpg", "indexed"})
+    public String format;
+
+    private byte[] encoded;
+    private BufferedImage decoded;
+    private PreprocessedBatch batch;
+
+    @Setup
+    public void setUp() throws IOException {
+        // Reflectivity-like blobs in the usual green/yellow/red palette.
+        Color[] palette = {new Color(4, 233, 231), new Color(1, 159, 244), new Color(2, 253, 2),
+            new Color(253, 248, 2), new Color(253, 149, 0), new Color(253, 0, 0)};
+        BufferedImage image = "indexed".equals(format)
+            ? new BufferedImage(size, size, BufferedImage.TYPE_BYTE_INDEXED, colorModel(palette))
+            : new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.BLACK);
+        graphics.fillRect(0, 0, size, size);
+        SplittableRandom random = new SplittableRandom(3);
+        for (int i = 0; i < 200; i++) {
+            graphics.setColor(palette[random.nextInt(palette.length)]);
+            int radius = random.nextInt(size / 40, size / 8);
+            graphics.fillOval(random.nextInt(size), random.nextInt(size), radius, radius);
+        }
+        graphics.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "indexed".equals(format) ? "png" : format, out);
+        encoded = out.toByteArray();
+        decoded = ImageIO.read(new ByteArrayInputStream(encoded));
+        batch = new PreprocessedBatch(1);
+    }
+
+    private static IndexColorModel colorModel(Color[] palette) {
+        byte[] r = new byte[palette.length + 1];
+        byte[] g = new byte[palette.length + 1];
+        byte[] b = new byte[palette.length + 1];
+        for (int i = 0; i < palette.length; i++) {
+            r[i + 1] = (byte) palette[i].getRed();
+            g[i + 1] = (byte) palette[i].getGreen();
+            b[i + 1] = (byte) palette[i].getBlue();
+        }
+        return new IndexColorModel(8, palette.length + 1, r, g, b);
+    }
+
+    @Benchmark
+    public BufferedImage decode() throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(encoded));
+    }
+
+    @Benchmark
+    public void preprocess() {
+        FusedPreprocessor.preprocess(decoded, batch, 0);
+    }
+
+    @Benchmark
+    public void decodeAndPreprocess() throws IOException {
+        FusedPreprocessor.preprocess(ImageIO.read(new ByteArrayInputStream(encoded)), batch, 0);
+    }
+
+    @Benchmark
+    public void subsampledDecodeAndPreprocess() throws IOException {
+        FusedPreprocessor.preprocess(ImageDecoder.decode(encoded, EmbeddingService.RESIZE), batch, 0);
+    }
+}
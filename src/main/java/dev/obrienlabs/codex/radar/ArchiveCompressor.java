@@ -0,0 +1,117 @@
+package dev.obrienlabs.codex.radar;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+// Deflates archive chunks on a small pool of its own, shared by every archive a run writes (one per output
+// shard), so compression overlaps inference instead of stalling the writer. Deflating is CPU-bound and
+// competes with the model for cores, which is why the pool is small unless asked otherwise.
+final class ArchiveCompressor implements AutoCloseable {
+    // Large enough that deflate's 32 KiB window sees many rows, small enough that a reader after one row
+    // inflates little more than it needs.
+    private static final int TARGET_CHUNK_BYTES = 1 << 20;
+
+    private final ExecutorService pool;
+    private final int threads;
+    private final int level;
+    private final int chunkRows;
+    private final AtomicLong rawBytes = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+    private final AtomicLong chunks = new AtomicLong();
+    private final AtomicLong stalledNanos = new AtomicLong();
+
+    // chunkRows 0 sizes chunks to about a mebibyte of stored rows.
+    ArchiveCompressor(int threads, int level, int chunkRows) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Archive threads must be positive: " + threads);
+        }
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Archive compression level must be 0-9: " + level);
+        }
+        if (chunkRows < 0) {
+            throw new IllegalArgumentException("Archive chunk rows must not be negative: " + chunkRows);
+        }
+        this.threads = threads;
+        this.level = level;
+        this.chunkRows = chunkRows;
+        this.pool = Executors.newFixedThreadPool(threads, runnable ->
+            Thread.ofPlatform().name("archive-deflate-", 0).daemon().unstarted(runnable));
+    }
+
+    static int defaultThreads() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+    }
+
+    ChunkedArchiveWriter open(Path output, EmbeddingPrecision precision) throws IOException {
+        return ChunkedArchiveWriter.open(ChunkedArchive.pathFor(output), precision, this);
+    }
+
+    int chunkRows(int rowBytes) {
+        return chunkRows > 0 ? chunkRows : Math.max(1, TARGET_CHUNK_BYTES / rowBytes);
+    }
+
+    // Chunks queued or compressing before the writer waits for the oldest, bounding the memory they hold.
+    int maxPending() {
+        return 2 * threads;
+    }
+
+    // Shuffles bytes [shuffleOffset, length) of chunk by value width, then deflates the whole chunk.
+    Future<byte[]> submit(byte[] chunk, int length, int shuffleOffset, int width) {
+        rawBytes.addAndGet(length);
+        return pool.submit(() -> {
+            byte[] input = chunk;
+            if (width > 1) {
+                input = Arrays.copyOf(chunk, length);
+                ChunkedArchive.shuffle(chunk, shuffleOffset, length - shuffleOffset, width, input);
+            }
+            byte[] compressed = deflate(input, length, level);
+            compressedBytes.addAndGet(compressed.length);
+            chunks.incrementAndGet();
+            return compressed;
+        });
+    }
+
+    void recordStall(long nanos) {
+        stalledNanos.addAndGet(nanos);
+    }
+
+    private static byte[] deflate(byte[] input, int length, int level) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(input, 0, length);
+            deflater.finish();
+            byte[] output = new byte[Math.max(64, length / 2)];
+            int size = 0;
+            while (!deflater.finished()) {
+                if (size == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                size += deflater.deflate(output, size, output.length - size);
+            }
+            return Arrays.copyOf(output, size);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    String summary() {
+        long raw = rawBytes.get();
+        long compressed = compressedBytes.get();
+        return String.format(Locale.ROOT, "Archive: %d chunks, %.1f MiB -> %.1f MiB (%.2fx) at level %d on %d "
+                + "threads; writer waited %.2f s for compression", chunks.get(), raw / 1048576.0,
+            compressed / 1048576.0, compressed == 0 ? 0.0 : (double) raw / compressed, level, threads,
+            stalledNanos.get() / 1e9);
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+}
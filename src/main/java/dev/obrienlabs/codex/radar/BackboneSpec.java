@@ -0,0 +1,112 @@
+package dev.obrienlabs.codex.radar;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+
+// A model embedded alongside the main one, and the preprocessing its translator applies. Parsed from
+// NAME=MODEL[,resize=N][,crop=N][,mean=R/G/B][,std=R/G/B], where MODEL is a local TorchScript file or
+// directory, or zoo:BACKBONE for an image-embedding model from the DJL model zoo. Unset keys keep the
+// ImageNet preprocessing the ResNet-50 backbone expects.
+record BackboneSpec(String name, Path modelPath, String zooBackbone, int resize, int crop, float[] mean,
+                    float[] std) {
+    // Suffixes radar-embed already gives other <base>.<suffix>.npy files.
+    private static final Set<String> RESERVED = Set.of("scales", "windows", "sequences");
+
+    static final BackboneSpec DEFAULT = new BackboneSpec("resnet50", null, "resnet50", EmbeddingService.RESIZE,
+        EmbeddingService.CROP_SIZE, EmbeddingService.MEAN, EmbeddingService.STD);
+
+    BackboneSpec {
+        if (!isName(name)) {
+            throw new IllegalArgumentException("Backbone name must be letters, digits, '-' or '_' and not one of "
+                + RESERVED + ": " + name);
+        }
+        if (crop < 1 || resize < crop) {
+            throw new IllegalArgumentException("Backbone " + name + " needs 1 <= crop <= resize: crop " + crop
+                + ", resize " + resize);
+        }
+        if (mean.length != 3 || std.length != 3) {
+            throw new IllegalArgumentException("Backbone " + name + " needs three mean and std values.");
+        }
+    }
+
+    static boolean isName(String name) {
+        return name.matches("[A-Za-z0-9_-]+") && !RESERVED.contains(name.toLowerCase(Locale.ROOT));
+    }
+
+    // The main model: a local file from --model, or the zoo ResNet-50.
+    static BackboneSpec primary(Path modelPath) {
+        return modelPath == null ? DEFAULT : new BackboneSpec("model", modelPath, null, DEFAULT.resize,
+            DEFAULT.crop, DEFAULT.mean, DEFAULT.std);
+    }
+
+    static BackboneSpec parse(String value) {
+        String[] parts = value.split(",");
+        int equals = parts[0].indexOf('=');
+        if (equals <= 0 || equals == parts[0].length() - 1) {
+            throw new IllegalArgumentException("--backbone must be NAME=MODEL[,key=value...]: " + value);
+        }
+        String name = parts[0].substring(0, equals).trim();
+        String model = parts[0].substring(equals + 1).trim();
+        int resize = DEFAULT.resize;
+        int crop = DEFAULT.crop;
+        float[] mean = DEFAULT.mean;
+        float[] std = DEFAULT.std;
+        boolean resizeSet = false;
+        for (int i = 1; i < parts.length; i++) {
+            int separator = parts[i].indexOf('=');
+            String key = separator == -1 ? parts[i].trim() : parts[i].substring(0, separator).trim();
+            String setting = separator == -1 ? "" : parts[i].substring(separator + 1).trim();
+            try {
+                switch (key.toLowerCase(Locale.ROOT)) {
+                    case "resize" -> {
+                        resize = Integer.parseInt(setting);
+                        resizeSet = true;
+                    }
+                    case "crop" -> crop = Integer.parseInt(setting);
+                    case "mean" -> mean = channels(setting);
+                    case "std" -> std = channels(setting);
+                    default -> throw new IllegalArgumentException("Unknown --backbone setting '" + key + "' in "
+                        + value + "; expected resize, crop, mean or std.");
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid --backbone " + key + " in " + value, e);
+            }
+        }
+        if (!resizeSet && crop > resize) {
+            // Keep the ImageNet resize-to-crop ratio for larger inputs.
+            resize = crop * DEFAULT.resize / DEFAULT.crop;
+        }
+        if (model.startsWith("zoo:")) {
+            return new BackboneSpec(name, null, model.substring("zoo:".length()), resize, crop, mean, std);
+        }
+        return new BackboneSpec(name, Path.of(model), null, resize, crop, mean, std);
+    }
+
+    private static float[] channels(String value) {
+        String[] parts = value.split("/");
+        float[] channels = new float[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            channels[i] = Float.parseFloat(parts[i].trim());
+        }
+        return channels;
+    }
+
+    // Embeddings from this backbone go to <base>.<name>.npy beside the main output.
+    Path outputFor(Path output) {
+        return outputFor(output, name);
+    }
+
+    static Path outputFor(Path output, String name) {
+        String fileName = output.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        return output.resolveSibling((dot == -1 ? fileName : fileName.substring(0, dot)) + "." + name + ".npy");
+    }
+
+    String describe() {
+        return String.format(Locale.ROOT, "%s (%s, resize %d, crop %d, mean %s, std %s)", name,
+            modelPath != null ? modelPath : "zoo:" + zooBackbone, resize, crop, Arrays.toString(mean),
+            Arrays.toString(std));
+    }
+}
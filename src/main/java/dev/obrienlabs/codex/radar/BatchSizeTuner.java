@@ -0,0 +1,241 @@
+package dev.obrienlabs.codex.radar;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+
+// Probes inference throughput over power-of-two batch sizes, settles on the fastest, and re-probes
+// around it if throughput later drops. Memory pressure caps the size for the rest of the run.
+final class BatchSizeTuner {
+    private static final int WARMUP_BATCHES = 1;
+    private static final int PROBE_BATCHES = 3;
+    private static final double GIVE_UP_RATIO = 0.9;
+    private static final double DROP_RATIO = 0.8;
+    private static final double EWMA_WEIGHT = 0.2;
+    private static final double HEAP_LIMIT = 0.85;
+    private static final double NATIVE_FREE_FLOOR = 0.10;
+    private static final Path MEMINFO = Path.of("/proc/meminfo");
+    private static final long MEMORY_SAMPLE_NANOS = 1_000_000_000L;
+
+    private final int maxBatchSize;
+    private final Map<Integer, Probe> probes = new TreeMap<>();
+    private List<Integer> candidates;
+    private int probeIndex;
+    private int current;
+    private int ceiling;
+    private boolean settled;
+    private double settledRate;
+    private double recentRate;
+    private int settledSamples;
+    private long memorySampledAt;
+
+    BatchSizeTuner(int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Max batch size must be positive: " + maxBatchSize);
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.ceiling = maxBatchSize;
+        List<Integer> sizes = new ArrayList<>();
+        for (int size = 1; size <= maxBatchSize; size *= 2) {
+            sizes.add(size);
+        }
+        startProbe(sizes);
+    }
+
+    int maxBatchSize() {
+        return maxBatchSize;
+    }
+
+    synchronized int batchSize() {
+        return current;
+    }
+
+    synchronized void record(int batchSize, int inferred, long nanos) {
+        // Rates count computed rows, so batches thinned by cache hits or duplicates still measure their size.
+        if (inferred == 0 || nanos <= 0) {
+            return;
+        }
+        if (relieveMemoryPressure(batchSize)) {
+            return;
+        }
+        Probe probe = probes.computeIfAbsent(batchSize, size -> new Probe());
+        if (probe.warmups < WARMUP_BATCHES) {
+            probe.warmups++;
+            return;
+        }
+        probe.images += inferred;
+        probe.nanos += nanos;
+        probe.samples++;
+        if (batchSize != current) {
+            return;
+        }
+        if (!settled) {
+            if (probe.samples >= PROBE_BATCHES) {
+                advanceProbe();
+            }
+            return;
+        }
+        double rate = inferred / (nanos / 1e9);
+        recentRate = settledSamples++ == 0 ? rate : EWMA_WEIGHT * rate + (1 - EWMA_WEIGHT) * recentRate;
+        if (settledRate == 0 && settledSamples >= PROBE_BATCHES) {
+            // Capped for memory without probing this size; its first measurements become the baseline.
+            settledRate = recentRate;
+        }
+        if (settledSamples >= PROBE_BATCHES && recentRate < DROP_RATIO * settledRate) {
+            System.out.printf(Locale.ROOT, "Auto batch size: throughput fell to %.1f images/s (was %.1f); "
+                + "re-probing around %d%n", recentRate, settledRate, current);
+            List<Integer> neighbours = new ArrayList<>();
+            for (int size : new int[] {current / 2, current, current * 2}) {
+                if (size >= 1 && size <= ceiling) {
+                    neighbours.add(size);
+                }
+            }
+            startProbe(neighbours);
+        }
+    }
+
+    private void startProbe(List<Integer> sizes) {
+        candidates = sizes;
+        probes.clear();
+        probeIndex = 0;
+        current = sizes.get(0);
+        settled = false;
+    }
+
+    private void advanceProbe() {
+        int best = bestSize();
+        boolean declining = current > best && probes.get(current).rate() < GIVE_UP_RATIO * probes.get(best).rate();
+        if (!declining && probeIndex + 1 < candidates.size() && candidates.get(probeIndex + 1) <= ceiling) {
+            current = candidates.get(++probeIndex);
+            return;
+        }
+        settle();
+    }
+
+    private void settle() {
+        current = bestSize();
+        settled = true;
+        settledRate = probes.get(current).rate();
+        settledSamples = 0;
+        StringJoiner probed = new StringJoiner(", ");
+        probes.forEach((size, probe) -> {
+            if (probe.samples > 0) {
+                probed.add(String.format(Locale.ROOT, "%d=%.1f", size, probe.rate()));
+            }
+        });
+        System.out.printf(Locale.ROOT, "Auto batch size: chose %d (%.1f images/s per predictor; probed %s)%n",
+            current, settledRate, probed);
+    }
+
+    private int bestSize() {
+        int best = current;
+        double bestRate = -1;
+        for (Map.Entry<Integer, Probe> entry : probes.entrySet()) {
+            if (entry.getKey() <= ceiling && entry.getValue().samples > 0 && entry.getValue().rate() > bestRate) {
+                best = entry.getKey();
+                bestRate = entry.getValue().rate();
+            }
+        }
+        return best;
+    }
+
+    private boolean relieveMemoryPressure(int batchSize) {
+        // Sampled at most once per interval; /proc/meminfo is too costly to read every batch.
+        long now = System.nanoTime();
+        if (memorySampledAt != 0 && now - memorySampledAt < MEMORY_SAMPLE_NANOS) {
+            return false;
+        }
+        memorySampledAt = now;
+        double heapLoad = heapLoad();
+        double nativeFree = nativeFreeFraction();
+        if (batchSize <= 1 || (heapLoad < HEAP_LIMIT && nativeFree > NATIVE_FREE_FLOOR)) {
+            return false;
+        }
+        int limit = Math.max(1, batchSize / 2);
+        if (limit >= ceiling) {
+            return false;
+        }
+        ceiling = limit;
+        System.out.printf(Locale.ROOT, "Auto batch size: memory pressure (heap %.0f%% after GC, %.0f%% physical "
+            + "memory free); capping batch size at %d%n", heapLoad * 100, nativeFree * 100, ceiling);
+        if (current > ceiling) {
+            if (settled || probes.keySet().stream().noneMatch(size -> size <= ceiling)) {
+                current = ceiling;
+                settled = true;
+                settledRate = 0;
+                settledSamples = 0;
+            } else {
+                settle();
+            }
+        }
+        return true;
+    }
+
+    // Old-generation occupancy after the last collection, so garbage awaiting GC is not mistaken for
+    // pressure. Young pools are skipped (they do not support usage thresholds) as they are routinely full.
+    private static double heapLoad() {
+        double load = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            MemoryUsage usage = pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported()
+                ? pool.getCollectionUsage() : null;
+            if (usage != null && usage.getMax() > 0) {
+                load = Math.max(load, (double) usage.getUsed() / usage.getMax());
+            }
+        }
+        return load;
+    }
+
+    // The engine allocates tensors off-heap, so physical memory is the headroom that matters for it.
+    // MemAvailable counts reclaimable page cache, which the MXBean's free memory figure does not.
+    private static double nativeFreeFraction() {
+        if (Files.isReadable(MEMINFO)) {
+            try {
+                long total = 0;
+                long available = 0;
+                for (String line : Files.readAllLines(MEMINFO)) {
+                    if (line.startsWith("MemTotal:")) {
+                        total = meminfoKilobytes(line);
+                    } else if (line.startsWith("MemAvailable:")) {
+                        available = meminfoKilobytes(line);
+                    }
+                }
+                if (total > 0 && available > 0) {
+                    return (double) available / total;
+                }
+            } catch (IOException | NumberFormatException e) {
+                // Fall back to the platform MXBean below.
+            }
+        }
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean sun && sun.getTotalMemorySize() > 0) {
+            return (double) sun.getFreeMemorySize() / sun.getTotalMemorySize();
+        }
+        return 1.0;
+    }
+
+    private static long meminfoKilobytes(String line) {
+        return Long.parseLong(line.replaceAll("[^0-9]", ""));
+    }
+
+    private static final class Probe {
+        private int warmups;
+        private int samples;
+        private long images;
+        private long nanos;
+
+        double rate() {
+            return nanos == 0 ? 0.0 : images / (nanos / 1e9);
+        }
+    }
+}
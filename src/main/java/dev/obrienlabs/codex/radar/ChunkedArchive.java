@@ -0,0 +1,299 @@
+package dev.obrienlabs.codex.radar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// Reads <base>.npc, a compressed copy of an embedding matrix written by ChunkedArchiveWriter:
+//
+//   header   magic, version, dtype, dimension, rows per chunk, flags
+//   chunks   each deflated on its own: INT8 scales (4 bytes per row), then the rows as in the .npy
+//   index    offset, compressed length and row count of every chunk
+//   trailer  index offset, row count, chunk count, magic
+//
+// Every chunk but the last holds the same number of rows, so a row range maps straight to the chunks that
+// cover it and nothing else is read or inflated.
+final class ChunkedArchive implements AutoCloseable {
+    static final int MAGIC = 0x4b43504e;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int INDEX_ENTRY_SIZE = 16;
+    static final int TRAILER_SIZE = 24;
+    // Bytes of each value are regrouped by significance before deflating; exponents then compress well.
+    static final int FLAG_SHUFFLE = 1;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final EmbeddingPrecision precision;
+    private final int dimension;
+    private final int chunkRows;
+    private final boolean shuffled;
+    private final long rowCount;
+    private final long[] offsets;
+    private final int[] lengths;
+    private final int[] rows;
+    private Chunk cached;
+
+    private ChunkedArchive(Path path, FileChannel channel, EmbeddingPrecision precision, int dimension,
+                           int chunkRows, boolean shuffled, long rowCount, long[] offsets, int[] lengths, int[] rows) {
+        this.path = path;
+        this.channel = channel;
+        this.precision = precision;
+        this.dimension = dimension;
+        this.chunkRows = chunkRows;
+        this.shuffled = shuffled;
+        this.rowCount = rowCount;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.rows = rows;
+    }
+
+    static Path pathFor(Path output) {
+        String fileName = output.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        return output.resolveSibling((dot == -1 ? fileName : fileName.substring(0, dot)) + ".npc");
+    }
+
+    static ChunkedArchive open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < HEADER_SIZE + TRAILER_SIZE) {
+                throw new IOException("Not a chunked embedding archive: " + path);
+            }
+            ByteBuffer header = read(channel, 0, HEADER_SIZE);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException("Not a chunked embedding archive: " + path);
+            }
+            EmbeddingPrecision precision = EmbeddingPrecision.fromDescr(descr(header.getInt(8)));
+            int dimension = header.getInt(12);
+            int chunkRows = header.getInt(16);
+            boolean shuffled = (header.getInt(20) & FLAG_SHUFFLE) != 0;
+
+            ByteBuffer trailer = read(channel, size - TRAILER_SIZE, TRAILER_SIZE);
+            long indexOffset = trailer.getLong(0);
+            long rowCount = trailer.getLong(8);
+            int chunkCount = trailer.getInt(16);
+            if (trailer.getInt(20) != MAGIC) {
+                throw new IOException(path + " has no chunk index; was the run interrupted?");
+            }
+            if (chunkRows < 1 || chunkCount < 0
+                || indexOffset + (long) chunkCount * INDEX_ENTRY_SIZE != size - TRAILER_SIZE) {
+                throw new IOException("Chunk index of " + path + " is corrupt.");
+            }
+            ByteBuffer index = read(channel, indexOffset, chunkCount * INDEX_ENTRY_SIZE);
+            long[] offsets = new long[chunkCount];
+            int[] lengths = new int[chunkCount];
+            int[] rows = new int[chunkCount];
+            long total = 0;
+            for (int i = 0; i < chunkCount; i++) {
+                offsets[i] = index.getLong(i * INDEX_ENTRY_SIZE);
+                lengths[i] = index.getInt(i * INDEX_ENTRY_SIZE + 8);
+                rows[i] = index.getInt(i * INDEX_ENTRY_SIZE + 12);
+                if (i < chunkCount - 1 && rows[i] != chunkRows || rows[i] < 1 || rows[i] > chunkRows
+                    || offsets[i] < HEADER_SIZE || offsets[i] + lengths[i] > indexOffset) {
+                    throw new IOException("Chunk index of " + path + " is corrupt.");
+                }
+                total += rows[i];
+            }
+            if (total != rowCount) {
+                throw new IOException("Chunk index of " + path + " lists " + total + " rows, expected " + rowCount);
+            }
+            return new ChunkedArchive(path, channel, precision, dimension, chunkRows, shuffled, rowCount, offsets,
+                lengths, rows);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    long rowCount() {
+        return rowCount;
+    }
+
+    int dimension() {
+        return dimension;
+    }
+
+    EmbeddingPrecision precision() {
+        return precision;
+    }
+
+    int chunkCount() {
+        return offsets.length;
+    }
+
+    long compressedBytes() {
+        long total = 0;
+        for (int length : lengths) {
+            total += length;
+        }
+        return total;
+    }
+
+    // Rows [from, to) dequantized to float, inflating only the chunks that hold them.
+    List<float[]> rows(long from, long to) throws IOException {
+        checkRange(from, to);
+        List<float[]> result = new ArrayList<>(Math.toIntExact(to - from));
+        for (long row = from; row < to; row++) {
+            result.add(row(row, new float[dimension]));
+        }
+        return result;
+    }
+
+    float[] row(long row, float[] target) throws IOException {
+        checkRange(row, row + 1);
+        int index = Math.toIntExact(row / chunkRows);
+        if (cached == null || cached.index() != index) {
+            cached = chunk(index);
+        }
+        cached.row((int) (row - (long) index * chunkRows), target);
+        return target;
+    }
+
+    // Index of the chunk holding the given row; chunk i starts at row i * chunkRows().
+    int chunkOf(long row) {
+        checkRange(row, row + 1);
+        return Math.toIntExact(row / chunkRows);
+    }
+
+    int chunkRows() {
+        return chunkRows;
+    }
+
+    Chunk chunk(int index) throws IOException {
+        ByteBuffer compressed = read(channel, offsets[index], lengths[index]);
+        int rowBytes = dimension * precision.bytes();
+        int scaleBytes = precision == EmbeddingPrecision.INT8 ? Float.BYTES : 0;
+        byte[] raw = new byte[rows[index] * (scaleBytes + rowBytes)];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int done = 0;
+            while (done < raw.length && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, done, raw.length - done);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                done += inflated;
+            }
+            if (done != raw.length || !inflater.finished()) {
+                throw new IOException("Chunk " + index + " of " + path + " is truncated.");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Chunk " + index + " of " + path + " is corrupt.", e);
+        } finally {
+            inflater.end();
+        }
+        int scaleEnd = rows[index] * scaleBytes;
+        if (shuffled) {
+            unshuffle(raw, scaleEnd, raw.length - scaleEnd, precision.bytes());
+        }
+        return new Chunk(index, rows[index], ByteBuffer.wrap(raw).order(ByteOrder.LITTLE_ENDIAN), scaleEnd, dimension,
+            precision);
+    }
+
+    private void checkRange(long from, long to) {
+        if (from < 0 || to > rowCount || from > to) {
+            throw new IllegalArgumentException("Rows " + from + ".." + to + " are outside 0.." + rowCount + " of "
+                + path);
+        }
+    }
+
+    // Value i's byte b moves to b * count + i, so equal-significance bytes of neighbouring values sit together.
+    static void shuffle(byte[] source, int offset, int length, int width, byte[] target) {
+        int count = length / width;
+        for (int i = 0; i < count; i++) {
+            for (int b = 0; b < width; b++) {
+                target[offset + b * count + i] = source[offset + i * width + b];
+            }
+        }
+    }
+
+    private static void unshuffle(byte[] data, int offset, int length, int width) {
+        if (width == 1) {
+            return;
+        }
+        byte[] shuffled = new byte[length];
+        System.arraycopy(data, offset, shuffled, 0, length);
+        int count = length / width;
+        for (int i = 0; i < count; i++) {
+            for (int b = 0; b < width; b++) {
+                data[offset + i * width + b] = shuffled[b * count + i];
+            }
+        }
+    }
+
+    // The NPY dtype string, packed into four bytes of the header.
+    static int descrCode(EmbeddingPrecision precision) {
+        byte[] bytes = (precision.descr() + "    ").getBytes(StandardCharsets.US_ASCII);
+        return ByteBuffer.wrap(bytes, 0, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+    }
+
+    private static String descr(int code) {
+        byte[] bytes = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(code).array();
+        return new String(bytes, StandardCharsets.US_ASCII).trim();
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of chunked archive.");
+            }
+        }
+        return buffer.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // One inflated chunk: the rows' bytes exactly as the .npy stores them, preceded by their INT8 scales.
+    record Chunk(int index, int rows, ByteBuffer data, int rowsOffset, int dimension, EmbeddingPrecision precision) {
+        float scale(int row) {
+            return data.getFloat(row * Float.BYTES);
+        }
+
+        // The stored bytes of rows [from, to), ready to be written to an .npy.
+        ByteBuffer rowBytes(int from, int to) {
+            int rowBytes = dimension * precision.bytes();
+            return data.slice(rowsOffset + from * rowBytes, (to - from) * rowBytes).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        ByteBuffer scaleBytes(int from, int to) {
+            return data.slice(from * Float.BYTES, (to - from) * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        void row(int row, float[] target) {
+            int base = rowsOffset + row * dimension * precision.bytes();
+            switch (precision) {
+                case F32 -> {
+                    for (int i = 0; i < dimension; i++) {
+                        target[i] = data.getFloat(base + i * Float.BYTES);
+                    }
+                }
+                case F16 -> {
+                    for (int i = 0; i < dimension; i++) {
+                        target[i] = Float.float16ToFloat(data.getShort(base + i * Short.BYTES));
+                    }
+                }
+                case INT8 -> {
+                    float scale = scale(row);
+                    for (int i = 0; i < dimension; i++) {
+                        target[i] = data.get(base + i) * scale;
+                    }
+                }
+            }
+        }
+    }
+}
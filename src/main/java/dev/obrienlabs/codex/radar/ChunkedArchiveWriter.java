@@ -0,0 +1,197 @@
+package dev.obrienlabs.codex.radar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+// Writes the layout ChunkedArchive reads. The calling thread only encodes rows into the current chunk;
+// full chunks go to the compressor's pool and are appended in order as they finish, and the index and
+// trailer follow in finish(). Closing an unfinished archive deletes it.
+final class ChunkedArchiveWriter implements AutoCloseable {
+    private final Path path;
+    private final FileChannel channel;
+    private final EmbeddingPrecision precision;
+    private final ArchiveCompressor compressor;
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private final List<long[]> index = new ArrayList<>();
+    private int dimension = -1;
+    private int chunkRows;
+    private ByteBuffer chunk;
+    private int chunkFill;
+    private long rowCount;
+    private boolean finished;
+
+    private ChunkedArchiveWriter(Path path, FileChannel channel, EmbeddingPrecision precision,
+                                 ArchiveCompressor compressor) {
+        this.path = path;
+        this.channel = channel;
+        this.precision = precision;
+        this.compressor = compressor;
+    }
+
+    static ChunkedArchiveWriter open(Path path, EmbeddingPrecision precision, ArchiveCompressor compressor)
+        throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        // The header is written by finish(); until then the file has no valid trailer and readers reject it.
+        channel.position(ChunkedArchive.HEADER_SIZE);
+        return new ChunkedArchiveWriter(path, channel, precision, compressor);
+    }
+
+    void writeRows(List<float[]> rows) throws IOException {
+        for (float[] row : rows) {
+            writeRow(row);
+        }
+    }
+
+    void writeRow(float[] row) throws IOException {
+        if (dimension == -1) {
+            dimension = row.length;
+            chunkRows = compressor.chunkRows(dimension * precision.bytes());
+        } else if (row.length != dimension) {
+            throw new IllegalArgumentException("Inconsistent embedding dimensions.");
+        }
+        if (chunk == null) {
+            chunk = ByteBuffer.allocate(chunkRows * (scaleBytes() + dimension * precision.bytes()))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        int base = chunkRows * scaleBytes() + chunkFill * dimension * precision.bytes();
+        switch (precision) {
+            case F32 -> {
+                for (int i = 0; i < dimension; i++) {
+                    chunk.putFloat(base + i * Float.BYTES, row[i]);
+                }
+            }
+            case F16 -> {
+                for (int i = 0; i < dimension; i++) {
+                    chunk.putShort(base + i * Short.BYTES, Float.floatToFloat16(row[i]));
+                }
+            }
+            case INT8 -> {
+                // Same quantization as NpyWriter, so the archive unpacks to a byte-identical .npy.
+                float scale = EmbeddingPrecision.int8Scale(row);
+                float inverseScale = scale == 0f ? 0f : 1f / scale;
+                chunk.putFloat(chunkFill * Float.BYTES, scale);
+                for (int i = 0; i < dimension; i++) {
+                    chunk.put(base + i, EmbeddingPrecision.quantize(row[i], inverseScale));
+                }
+            }
+        }
+        chunkFill++;
+        rowCount++;
+        if (chunkFill == chunkRows) {
+            submitChunk();
+        }
+    }
+
+    long rowCount() {
+        return rowCount;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    private int scaleBytes() {
+        return precision == EmbeddingPrecision.INT8 ? Float.BYTES : 0;
+    }
+
+    private void submitChunk() throws IOException {
+        byte[] data = chunk.array();
+        int rowsOffset = chunkRows * scaleBytes();
+        if (chunkFill < chunkRows) {
+            // The last chunk keeps its scales directly before its rows, as a full chunk would.
+            int scales = chunkFill * scaleBytes();
+            System.arraycopy(data, rowsOffset, data, scales, chunkFill * dimension * precision.bytes());
+            rowsOffset = scales;
+        }
+        int length = rowsOffset + chunkFill * dimension * precision.bytes();
+        pending.add(new Pending(compressor.submit(data, length, rowsOffset, precision.bytes()), chunkFill));
+        chunk = null;
+        chunkFill = 0;
+        while (!pending.isEmpty() && (pending.size() > compressor.maxPending() || pending.peek().chunk().isDone())) {
+            appendOldest();
+        }
+    }
+
+    private void appendOldest() throws IOException {
+        Pending oldest = pending.remove();
+        byte[] compressed;
+        long start = System.nanoTime();
+        try {
+            compressed = oldest.chunk().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing " + path, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compress a chunk of " + path, e.getCause());
+        }
+        compressor.recordStall(System.nanoTime() - start);
+        index.add(new long[] {channel.position(), compressed.length, oldest.rows()});
+        ByteBuffer buffer = ByteBuffer.wrap(compressed);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // Writes the last chunk, the index, the trailer and the header.
+    void finish() throws IOException {
+        if (chunkFill > 0) {
+            submitChunk();
+        }
+        while (!pending.isEmpty()) {
+            appendOldest();
+        }
+        long indexOffset = channel.position();
+        ByteBuffer tail = ByteBuffer.allocate(index.size() * ChunkedArchive.INDEX_ENTRY_SIZE
+            + ChunkedArchive.TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        for (long[] entry : index) {
+            tail.putLong(entry[0]).putInt((int) entry[1]).putInt((int) entry[2]);
+        }
+        tail.putLong(indexOffset).putLong(rowCount).putInt(index.size()).putInt(ChunkedArchive.MAGIC);
+        tail.flip();
+        while (tail.hasRemaining()) {
+            channel.write(tail);
+        }
+        ByteBuffer header = ByteBuffer.allocate(ChunkedArchive.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(ChunkedArchive.MAGIC).putInt(ChunkedArchive.VERSION)
+            .putInt(ChunkedArchive.descrCode(precision)).putInt(Math.max(dimension, 0))
+            .putInt(Math.max(chunkRows, 1)).putInt(precision.bytes() > 1 ? ChunkedArchive.FLAG_SHUFFLE : 0);
+        header.flip();
+        long position = 0;
+        while (header.hasRemaining()) {
+            position += channel.write(header, position);
+        }
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            for (Pending left : pending) {
+                left.chunk().cancel(true);
+            }
+            channel.close();
+        } finally {
+            if (!finished) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private record Pending(Future<byte[]> chunk, int rows) {
+    }
+}
@@ -0,0 +1,272 @@
+package dev.obrienlabs.codex.radar;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class EmbeddingCache implements AutoCloseable {
+    private static final int MAGIC = 0x52454331;
+    private static final int JOURNAL_HEADER_SIZE = 8;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int CHECKPOINT_ROWS = 256;
+
+    private final FileChannel vectors;
+    private final FileChannel journal;
+    private final ByteBuffer vectorBuffer;
+    private final ByteBuffer journalBuffer;
+    private final Map<String, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private boolean reset;
+    private int dimension;
+    private long rowCount;
+    private long flushedRows;
+    private int uncheckpointedRows;
+
+    private EmbeddingCache(FileChannel vectors, FileChannel journal, Map<String, Entry> entries,
+                           int dimension, long rowCount) {
+        this.vectors = vectors;
+        this.journal = journal;
+        this.entries = entries;
+        this.dimension = dimension;
+        this.rowCount = rowCount;
+        this.flushedRows = rowCount;
+        this.vectorBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        this.journalBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // The identity names whatever produced the vectors (model, decoding); a cache built under another
+    // identity is emptied rather than served.
+    static EmbeddingCache open(Path directory, String identity) throws IOException {
+        Files.createDirectories(directory);
+        Path journalPath = directory.resolve("journal.bin");
+        Path vectorsPath = directory.resolve("vectors.f32");
+        Path identityPath = directory.resolve("identity.txt");
+        boolean reset = false;
+        if (Files.exists(journalPath) && !(Files.exists(identityPath)
+            && Files.readString(identityPath, StandardCharsets.UTF_8).equals(identity))) {
+            Files.deleteIfExists(journalPath);
+            Files.deleteIfExists(vectorsPath);
+            reset = true;
+        }
+        Files.writeString(identityPath, identity, StandardCharsets.UTF_8);
+
+        Map<String, Entry> entries = new ConcurrentHashMap<>();
+        int dimension = 0;
+        long journalLength = JOURNAL_HEADER_SIZE;
+        if (Files.exists(journalPath) && Files.size(journalPath) >= JOURNAL_HEADER_SIZE) {
+            try (InputStream stream = Files.newInputStream(journalPath);
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+                if (Integer.reverseBytes(in.readInt()) != MAGIC) {
+                    throw new IOException("Not an embedding cache journal: " + journalPath);
+                }
+                dimension = Integer.reverseBytes(in.readInt());
+                journalLength = readEntries(in, entries, journalLength);
+            }
+        }
+
+        FileChannel vectors = FileChannel.open(vectorsPath, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long rowCount = dimension == 0 ? 0 : vectors.size() / ((long) dimension * Float.BYTES);
+        vectors.truncate(rowCount * dimension * Float.BYTES);
+        vectors.position(vectors.size());
+        entries.values().removeIf(entry -> entry.row() >= rowCount);
+
+        FileChannel journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        journal.truncate(journalLength);
+        EmbeddingCache cache = new EmbeddingCache(vectors, journal, entries, dimension, rowCount);
+        cache.reset = reset;
+        cache.writeJournalHeader();
+        journal.position(journalLength);
+        return cache;
+    }
+
+    Lookup lookup(Path path) throws IOException {
+        String key = key(path);
+        FileFingerprint stat = FileFingerprint.stat(path);
+        Entry entry = entries.get(key);
+        if (entry != null && entry.fingerprint().sameStat(stat)) {
+            hits.incrementAndGet();
+            return new Lookup(entry.fingerprint(), read(entry.row()), null);
+        }
+
+        byte[] content = Files.readAllBytes(path);
+        FileFingerprint fingerprint = stat.withContentHash(FileFingerprint.hash(content));
+        if (entry != null && entry.fingerprint().size() == fingerprint.size()
+            && Arrays.equals(entry.fingerprint().contentHash(), fingerprint.contentHash())) {
+            hits.incrementAndGet();
+            float[] embedding = read(entry.row());
+            synchronized (this) {
+                appendEntry(key, new Entry(fingerprint, entry.row()));
+            }
+            return new Lookup(fingerprint, embedding, null);
+        }
+        misses.incrementAndGet();
+        return new Lookup(fingerprint, null, content);
+    }
+
+    synchronized void put(Path path, FileFingerprint fingerprint, float[] embedding) throws IOException {
+        if (dimension == 0) {
+            dimension = embedding.length;
+            writeJournalHeader();
+        } else if (embedding.length != dimension) {
+            throw new IllegalArgumentException("Embedding dimension " + embedding.length
+                + " does not match cache dimension " + dimension + ".");
+        }
+        for (float value : embedding) {
+            if (vectorBuffer.remaining() < Float.BYTES) {
+                flushVectors();
+            }
+            vectorBuffer.putFloat(value);
+        }
+        appendEntry(key(path), new Entry(fingerprint, rowCount++));
+        if (++uncheckpointedRows >= CHECKPOINT_ROWS) {
+            checkpoint();
+        }
+    }
+
+    synchronized void checkpoint() throws IOException {
+        flushVectors();
+        vectors.force(false);
+        drain(journal, journalBuffer);
+        journal.force(false);
+        uncheckpointedRows = 0;
+    }
+
+    // True when open found vectors from a different identity and discarded them.
+    boolean wasReset() {
+        return reset;
+    }
+
+    long hits() {
+        return hits.get();
+    }
+
+    long misses() {
+        return misses.get();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            checkpoint();
+        } finally {
+            vectors.close();
+            journal.close();
+        }
+    }
+
+    private synchronized float[] read(long row) throws IOException {
+        if (row >= flushedRows) {
+            flushVectors();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(dimension * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        long position = row * dimension * Float.BYTES;
+        while (buffer.hasRemaining()) {
+            int read = vectors.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Cache row " + row + " is truncated.");
+            }
+        }
+        buffer.flip();
+        float[] embedding = new float[dimension];
+        buffer.asFloatBuffer().get(embedding);
+        return embedding;
+    }
+
+    private void appendEntry(String key, Entry entry) throws IOException {
+        byte[] pathBytes = key.getBytes(StandardCharsets.UTF_8);
+        int recordSize = Integer.BYTES + pathBytes.length + 3 * Long.BYTES + FileFingerprint.HASH_BYTES;
+        if (journalBuffer.remaining() < recordSize) {
+            // Journal records may only reference rows that are already durable.
+            flushVectors();
+            vectors.force(false);
+            drain(journal, journalBuffer);
+        }
+        if (journalBuffer.remaining() < recordSize) {
+            throw new IllegalArgumentException("Path too long for embedding cache: " + key);
+        }
+        journalBuffer.putInt(pathBytes.length);
+        journalBuffer.put(pathBytes);
+        journalBuffer.putLong(entry.fingerprint().size());
+        journalBuffer.putLong(entry.fingerprint().modifiedMillis());
+        journalBuffer.put(entry.fingerprint().contentHash());
+        journalBuffer.putLong(entry.row());
+        entries.put(key, entry);
+    }
+
+    private void flushVectors() throws IOException {
+        drain(vectors, vectorBuffer);
+        flushedRows = rowCount;
+    }
+
+    private void writeJournalHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(dimension).flip();
+        long position = 0;
+        while (header.hasRemaining()) {
+            position += journal.write(header, position);
+        }
+    }
+
+    private static long readEntries(DataInputStream in, Map<String, Entry> entries, long offset)
+        throws IOException {
+        long validLength = offset;
+        try {
+            while (true) {
+                int pathLength = Integer.reverseBytes(in.readInt());
+                if (pathLength < 0 || pathLength > BUFFER_SIZE) {
+                    break;
+                }
+                byte[] pathBytes = in.readNBytes(pathLength);
+                long size = Long.reverseBytes(in.readLong());
+                long modified = Long.reverseBytes(in.readLong());
+                byte[] hash = in.readNBytes(FileFingerprint.HASH_BYTES);
+                long row = Long.reverseBytes(in.readLong());
+                if (pathBytes.length != pathLength || hash.length != FileFingerprint.HASH_BYTES) {
+                    break;
+                }
+                entries.put(new String(pathBytes, StandardCharsets.UTF_8),
+                    new Entry(new FileFingerprint(size, modified, hash), row));
+                validLength += Integer.BYTES + pathLength + 3L * Long.BYTES + FileFingerprint.HASH_BYTES;
+            }
+        } catch (EOFException e) {
+            // A torn trailing record from an interrupted run is discarded.
+        }
+        return validLength;
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static String key(Path path) {
+        return path.toAbsolutePath().normalize().toString();
+    }
+
+    record Lookup(FileFingerprint fingerprint, float[] embedding, byte[] content) {
+        boolean hit() {
+            return embedding != null;
+        }
+    }
+
+    private record Entry(FileFingerprint fingerprint, long row) {
+    }
+}
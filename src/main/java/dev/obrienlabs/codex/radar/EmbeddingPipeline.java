@@ -0,0 +1,496 @@
+package dev.obrienlabs.codex.radar;
+
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.ImageFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+final class EmbeddingPipeline {
+    private static final int QUEUE_CAPACITY = 4;
+    private static final Batch END = new Batch(0, List.of(), null, List.of(), List.of(), List.of());
+    private static final Future<Batch> END_FUTURE = CompletableFuture.completedFuture(END);
+
+    private final EmbeddingService service;
+    private final ImageFactory factory;
+    private final int batchSize;
+    private final BatchSizeTuner tuner;
+    private final EmbeddingCache cache;
+    private final TileGrid tiles;
+    private final FrameDeduplicator dedup;
+    // Smallest decoded size for subsampling, or 0 to decode at full resolution.
+    private final int decodeSize;
+    private final BlockingQueue<PreprocessedBatch> buffers;
+    private final PipelineMetrics metrics = new PipelineMetrics();
+
+    EmbeddingPipeline(EmbeddingService service, int batchSize, EmbeddingCache cache, boolean fusedPreprocessing) {
+        this(service, batchSize, null, cache, fusedPreprocessing);
+    }
+
+    // With a tuner, batchSize is the largest batch it may ask for and sizes buffers accordingly.
+    EmbeddingPipeline(EmbeddingService service, int batchSize, BatchSizeTuner tuner, EmbeddingCache cache,
+                      boolean fusedPreprocessing) {
+        this(service, batchSize, tuner, cache, fusedPreprocessing, null, null, false);
+    }
+
+    // With tiles, every row is one non-empty tile; tiles always use the fused path and bypass the cache.
+    // With dedup, frames close to their station's last embedded frame reuse its embedding.
+    // With subsampled decoding, whole frames are decoded at no less than the resize target instead of full size.
+    EmbeddingPipeline(EmbeddingService service, int batchSize, BatchSizeTuner tuner, EmbeddingCache cache,
+                      boolean fusedPreprocessing, TileGrid tiles, FrameDeduplicator dedup, boolean subsampleDecode) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        if (tiles != null && dedup != null) {
+            throw new IllegalArgumentException("Frame dedup does not apply to tiles.");
+        }
+        if (service.backboneCount() > 1 && (fusedPreprocessing || tiles != null || cache != null || dedup != null)) {
+            // Each backbone needs its own embedding of every frame from its own preprocessing.
+            throw new IllegalArgumentException("Several backbones need decoded images for every frame; fused "
+                + "preprocessing, tiles, the cache and frame dedup cannot be used with them.");
+        }
+        this.service = service;
+        this.factory = ImageFactory.getInstance();
+        this.batchSize = batchSize;
+        this.tuner = tuner;
+        this.cache = tiles == null ? cache : null;
+        this.tiles = tiles;
+        this.dedup = dedup;
+        this.decodeSize = subsampleDecode ? service.largestResize() : 0;
+        if (fusedPreprocessing || tiles != null) {
+            // One buffer per queued batch plus the batch being filled and those being inferred.
+            int pooled = QUEUE_CAPACITY + 1 + inflightBatches(service);
+            this.buffers = new ArrayBlockingQueue<>(pooled);
+            for (int i = 0; i < pooled; i++) {
+                buffers.add(new PreprocessedBatch(batchSize));
+            }
+        } else {
+            this.buffers = null;
+        }
+    }
+
+    void run(Iterator<Path> paths, EmbeddingSink sink) throws Exception {
+        run(paths, sink, List.of());
+    }
+
+    // With several backbones, the main model's rows go to sink and backbone i's to backboneSinks[i - 1],
+    // all written from the same batches so their rows stay aligned.
+    void run(Iterator<Path> paths, EmbeddingSink sink, List<EmbeddingSink> backboneSinks) throws Exception {
+        if (backboneSinks.size() != service.backboneCount() - 1) {
+            throw new IllegalArgumentException("Expected " + (service.backboneCount() - 1) + " backbone sinks, got "
+                + backboneSinks.size());
+        }
+        BlockingQueue<Batch> decoded = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        BlockingQueue<Future<Batch>> embedded = new ArrayBlockingQueue<>(inflightBatches(service));
+
+        try (ExecutorService decoders = Executors.newVirtualThreadPerTaskExecutor();
+             ExecutorService inference = Executors.newFixedThreadPool(service.predictorCount());
+             ExecutorService stages = Executors.newFixedThreadPool(3)) {
+            List<Callable<Void>> tasks = List.of(
+                () -> tiles == null ? decode(paths, decoders, decoded) : decodeTiles(paths, decoders, decoded),
+                () -> infer(decoded, embedded, inference),
+                () -> write(embedded, sink, backboneSinks));
+            try {
+                awaitAll(stages, tasks);
+            } catch (Exception e) {
+                stages.shutdownNow();
+                inference.shutdownNow();
+                decoders.shutdownNow();
+                throw e;
+            }
+        }
+    }
+
+    PipelineMetrics metrics() {
+        return metrics;
+    }
+
+    int batchSize() {
+        return tuner == null ? batchSize : tuner.batchSize();
+    }
+
+    private static int inflightBatches(EmbeddingService service) {
+        return Math.max(QUEUE_CAPACITY, 2 * service.predictorCount());
+    }
+
+    private Void decode(Iterator<Path> paths, ExecutorService decoders, BlockingQueue<Batch> out)
+        throws InterruptedException {
+        while (paths.hasNext()) {
+            int size = batchSize();
+            List<Path> batchPaths = new ArrayList<>(size);
+            while (batchPaths.size() < size && paths.hasNext()) {
+                batchPaths.add(paths.next());
+            }
+            PreprocessedBatch buffer = buffers == null ? null : buffers.take();
+            List<Future<Frame>> frames = new ArrayList<>(batchPaths.size());
+            for (int slot = 0; slot < batchPaths.size(); slot++) {
+                Path path = batchPaths.get(slot);
+                int frameSlot = slot;
+                frames.add(decoders.submit(() -> load(path, buffer, frameSlot)));
+            }
+            out.put(new Batch(size, batchPaths, buffer, frames, List.of(), List.of()));
+        }
+        out.put(END);
+        return null;
+    }
+
+    // Tiles are packed across frames: a few frames are decoded ahead, and their non-empty tiles fill each
+    // batch in frame order so rows are written in the same order as the input.
+    private Void decodeTiles(Iterator<Path> paths, ExecutorService decoders, BlockingQueue<Batch> out)
+        throws Exception {
+        int lookahead = Math.max(2, service.predictorCount() + 1);
+        ArrayDeque<Future<TiledFrame>> ahead = new ArrayDeque<>(lookahead);
+        TileBatch batch = null;
+        while (paths.hasNext() || !ahead.isEmpty()) {
+            while (ahead.size() < lookahead && paths.hasNext()) {
+                Path path = paths.next();
+                ahead.add(decoders.submit(() -> loadTiles(path)));
+            }
+            TiledFrame frame = await(ahead.poll());
+            for (TileGrid.Tile tile : frame.tiles()) {
+                if (batch == null) {
+                    batch = new TileBatch(batchSize(), buffers.take());
+                }
+                PreprocessedBatch buffer = batch.buffer;
+                int slot = batch.paths.size();
+                batch.paths.add(frame.path());
+                batch.pending.add(decoders.submit(() -> preprocessTile(frame, tile, buffer, slot)));
+                if (batch.paths.size() == batch.capacity) {
+                    out.put(batch.toBatch());
+                    batch = null;
+                }
+            }
+        }
+        if (batch != null) {
+            out.put(batch.toBatch());
+        }
+        out.put(END);
+        return null;
+    }
+
+    private Void infer(BlockingQueue<Batch> in, BlockingQueue<Future<Batch>> out, ExecutorService inference)
+        throws Exception {
+        while (true) {
+            Batch batch = in.take();
+            metrics.decodedQueue().sample(in.size());
+            if (batch == END) {
+                out.put(END_FUTURE);
+                return null;
+            }
+            Batch ready = dedup == null ? batch : deduplicate(batch);
+            out.put(inference.submit(() -> embed(ready)));
+        }
+    }
+
+    // Runs on the single infer stage so frames are compared in input order.
+    private Batch deduplicate(Batch batch) throws Exception {
+        List<Frame> frames = new ArrayList<>(batch.pending().size());
+        for (Future<Frame> pending : batch.pending()) {
+            Frame frame = await(pending);
+            if (frame.thumbnail() != null && dedup.isDuplicate(frame.path(), frame.fingerprint(), frame.thumbnail())) {
+                frame = frame.asDuplicate();
+            }
+            frames.add(frame);
+        }
+        return new Batch(batch.capacity(), batch.paths(), batch.buffer(), List.of(), frames, List.of());
+    }
+
+    private Batch embed(Batch batch) throws Exception {
+        List<Frame> frames = new ArrayList<>(batch.frames());
+        for (Future<Frame> pending : batch.pending()) {
+            frames.add(await(pending));
+        }
+        long start = System.nanoTime();
+        List<List<float[]>> backbones = List.of();
+        List<float[]> computed;
+        if (service.backboneCount() > 1) {
+            backbones = embedBackbones(frames);
+            computed = backbones.get(0);
+            backbones = backbones.subList(1, backbones.size());
+        } else {
+            computed = batch.buffer() == null ? embedImages(frames) : embedBuffer(frames, batch.buffer());
+        }
+        metrics.recordBatch(batch.capacity(), frames.size(), computed.size());
+        if (tuner != null) {
+            tuner.record(batch.capacity(), computed.size(), System.nanoTime() - start);
+        }
+        List<float[]> embeddings = new ArrayList<>(frames.size());
+        int next = 0;
+        for (Frame frame : frames) {
+            // Duplicates are filled in by the write stage once their reference row has been written.
+            embeddings.add(frame.cached() != null ? frame.cached() : frame.duplicate() ? null : computed.get(next++));
+        }
+        return new Batch(batch.capacity(), batch.paths(), null, List.of(), frames, embeddings, backbones);
+    }
+
+    // Every frame is decoded here (no cache or dedup), so each backbone returns one row per frame.
+    private List<List<float[]>> embedBackbones(List<Frame> frames) throws Exception {
+        List<Image> images = new ArrayList<>(frames.size());
+        for (Frame frame : frames) {
+            images.add(frame.image());
+        }
+        return service.embedBackbones(images);
+    }
+
+    private List<float[]> embedImages(List<Frame> frames) throws Exception {
+        List<Image> images = new ArrayList<>(frames.size());
+        for (Frame frame : frames) {
+            if (frame.cached() == null && !frame.duplicate()) {
+                images.add(frame.image());
+            }
+        }
+        return images.isEmpty() ? List.of() : service.embedBatch(images);
+    }
+
+    private List<float[]> embedBuffer(List<Frame> frames, PreprocessedBatch buffer) throws Exception {
+        try {
+            int size = 0;
+            for (Frame frame : frames) {
+                if (frame.cached() == null && !frame.duplicate()) {
+                    buffer.move(frame.slot(), size++);
+                }
+            }
+            buffer.size(size);
+            return size == 0 ? List.of() : service.embedPreprocessed(buffer);
+        } finally {
+            buffers.put(buffer);
+        }
+    }
+
+    private Void write(BlockingQueue<Future<Batch>> in, EmbeddingSink sink, List<EmbeddingSink> backboneSinks)
+        throws Exception {
+        while (true) {
+            Batch batch = await(in.take());
+            metrics.inferenceQueue().sample(in.size());
+            if (batch == END) {
+                return null;
+            }
+            RadarEvents.Write event = new RadarEvents.Write();
+            event.begin();
+            long start = System.nanoTime();
+            if (dedup != null) {
+                resolveDuplicates(batch);
+            }
+            List<FileFingerprint> fingerprints = new ArrayList<>(batch.frames().size());
+            List<TileGrid.Tile> frameTiles = new ArrayList<>(batch.frames().size());
+            for (Frame frame : batch.frames()) {
+                fingerprints.add(frame.fingerprint());
+                frameTiles.add(frame.tile());
+            }
+            sink.write(batch.paths(), fingerprints, frameTiles, batch.embeddings());
+            for (int i = 0; i < backboneSinks.size(); i++) {
+                backboneSinks.get(i).write(batch.paths(), fingerprints, frameTiles, batch.backbones().get(i));
+            }
+            if (cache != null) {
+                for (int i = 0; i < batch.frames().size(); i++) {
+                    Frame frame = batch.frames().get(i);
+                    // A duplicate holds its reference frame's embedding, not one computed from its own pixels.
+                    if (frame.cached() == null && !frame.duplicate()) {
+                        cache.put(frame.path(), frame.fingerprint(), batch.embeddings().get(i));
+                    }
+                }
+            }
+            metrics.write().recordNanos(System.nanoTime() - start);
+            metrics.recordWritten(batch.paths().size());
+            event.rows = batch.paths().size();
+            event.commit();
+        }
+    }
+
+    private void resolveDuplicates(Batch batch) {
+        for (int i = 0; i < batch.frames().size(); i++) {
+            Frame frame = batch.frames().get(i);
+            if (frame.duplicate()) {
+                batch.embeddings().set(i, dedup.reusedEmbedding(frame.path()));
+            } else if (frame.thumbnail() != null) {
+                dedup.referenceWritten(frame.path(), batch.embeddings().get(i));
+            }
+        }
+    }
+
+    private Frame load(Path path, PreprocessedBatch buffer, int slot) throws IOException {
+        FileFingerprint fingerprint;
+        byte[] content;
+        if (cache == null) {
+            // Read once so the metadata's size and content hash describe exactly the bytes decoded.
+            fingerprint = FileFingerprint.stat(path);
+            content = Files.readAllBytes(path);
+            fingerprint = fingerprint.withContentHash(FileFingerprint.hash(content));
+        } else {
+            EmbeddingCache.Lookup lookup = cache.lookup(path);
+            if (lookup.hit()) {
+                return new Frame(path, lookup.fingerprint(), null, lookup.embedding(), slot, TileGrid.WHOLE_FRAME);
+            }
+            fingerprint = lookup.fingerprint();
+            content = lookup.content();
+        }
+        if (buffer != null) {
+            return preprocess(path, fingerprint, content, buffer, slot);
+        }
+        Image image = decodeSize > 0 ? factory.fromImage(decodeImage(path, content))
+            : decode(path, p -> factory.fromInputStream(new ByteArrayInputStream(content)));
+        Frame frame = new Frame(path, fingerprint, image, null, slot, TileGrid.WHOLE_FRAME);
+        if (dedup != null && image.getWrappedImage() instanceof BufferedImage decoded) {
+            frame = frame.withThumbnail(FrameDeduplicator.thumbnail(decoded));
+        }
+        return frame;
+    }
+
+    private Frame preprocess(Path path, FileFingerprint fingerprint, byte[] content,
+                             PreprocessedBatch buffer, int slot) throws IOException {
+        BufferedImage image = decodeImage(path, content);
+        RadarEvents.Preprocess event = new RadarEvents.Preprocess();
+        event.begin();
+        long start = System.nanoTime();
+        FusedPreprocessor.preprocess(image, buffer, slot);
+        metrics.preprocess().recordNanos(System.nanoTime() - start);
+        event.fused = true;
+        event.commit();
+        Frame frame = new Frame(path, fingerprint, null, null, slot, TileGrid.WHOLE_FRAME);
+        return dedup == null ? frame : frame.withThumbnail(FrameDeduplicator.thumbnail(image));
+    }
+
+    private BufferedImage decodeImage(Path path, byte[] content) throws IOException {
+        BufferedImage image = decode(path, p -> decodeSize > 0 ? ImageDecoder.decode(content, decodeSize)
+            : ImageIO.read(new ByteArrayInputStream(content)));
+        if (image == null) {
+            throw new IOException("Unsupported image format: " + path);
+        }
+        return image;
+    }
+
+    private TiledFrame loadTiles(Path path) throws IOException {
+        FileFingerprint fingerprint = FileFingerprint.stat(path);
+        byte[] content = Files.readAllBytes(path);
+        fingerprint = fingerprint.withContentHash(FileFingerprint.hash(content));
+        BufferedImage image = decode(path, p -> ImageIO.read(new ByteArrayInputStream(content)));
+        if (image == null) {
+            throw new IOException("Unsupported image format: " + path);
+        }
+        List<TileGrid.Tile> all = tiles.tiles(image.getWidth(), image.getHeight());
+        List<TileGrid.Tile> kept = tiles.nonEmpty(image, all);
+        metrics.recordTiles(all.size(), kept.size());
+        return new TiledFrame(path, fingerprint, image, kept);
+    }
+
+    private Frame preprocessTile(TiledFrame frame, TileGrid.Tile tile, PreprocessedBatch buffer, int slot) {
+        RadarEvents.Preprocess event = new RadarEvents.Preprocess();
+        event.begin();
+        long start = System.nanoTime();
+        FusedPreprocessor.preprocess(frame.image(), tile, buffer, slot);
+        metrics.preprocess().recordNanos(System.nanoTime() - start);
+        event.fused = true;
+        event.commit();
+        return new Frame(frame.path(), frame.fingerprint(), null, null, slot, tile);
+    }
+
+    private <T> T decode(Path path, Decoder<T> decoder) throws IOException {
+        RadarEvents.Decode event = new RadarEvents.Decode();
+        event.begin();
+        long start = System.nanoTime();
+        try {
+            return decoder.decode(path);
+        } finally {
+            metrics.decode().recordNanos(System.nanoTime() - start);
+            if (event.shouldCommit()) {
+                event.path = path.toString();
+                event.commit();
+            }
+        }
+    }
+
+    private static void awaitAll(ExecutorService executor, List<Callable<Void>> tasks) throws Exception {
+        CompletionService<Void> completion = new ExecutorCompletionService<>(executor);
+        for (Callable<Void> task : tasks) {
+            completion.submit(task);
+        }
+        for (int i = 0; i < tasks.size(); i++) {
+            await(completion.take());
+        }
+    }
+
+    static <T> T await(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception exception) {
+                throw exception;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Decoder<T> {
+        T decode(Path path) throws IOException;
+    }
+
+    // backbones holds the rows of every backbone after the first, once embedded.
+    private record Batch(int capacity, List<Path> paths, PreprocessedBatch buffer, List<Future<Frame>> pending,
+                         List<Frame> frames, List<float[]> embeddings, List<List<float[]>> backbones) {
+        Batch(int capacity, List<Path> paths, PreprocessedBatch buffer, List<Future<Frame>> pending,
+              List<Frame> frames, List<float[]> embeddings) {
+            this(capacity, paths, buffer, pending, frames, embeddings, List.of());
+        }
+    }
+
+    private record Frame(Path path, FileFingerprint fingerprint, Image image, float[] cached, int slot,
+                         TileGrid.Tile tile, byte[] thumbnail, boolean duplicate) {
+        Frame(Path path, FileFingerprint fingerprint, Image image, float[] cached, int slot, TileGrid.Tile tile) {
+            this(path, fingerprint, image, cached, slot, tile, null, false);
+        }
+
+        Frame withThumbnail(byte[] thumbnail) {
+            return new Frame(path, fingerprint, image, cached, slot, tile, thumbnail, false);
+        }
+
+        // The decoded image is dropped; a duplicate never reaches the model.
+        Frame asDuplicate() {
+            return new Frame(path, fingerprint, null, cached, slot, tile, thumbnail, true);
+        }
+    }
+
+    private record TiledFrame(Path path, FileFingerprint fingerprint, BufferedImage image,
+                              List<TileGrid.Tile> tiles) {
+    }
+
+    private static final class TileBatch {
+        private final int capacity;
+        private final PreprocessedBatch buffer;
+        private final List<Path> paths;
+        private final List<Future<Frame>> pending;
+
+        private TileBatch(int capacity, PreprocessedBatch buffer) {
+            this.capacity = capacity;
+            this.buffer = buffer;
+            this.paths = new ArrayList<>(capacity);
+            this.pending = new ArrayList<>(capacity);
+        }
+
+        private Batch toBatch() {
+            return new Batch(capacity, paths, buffer, pending, List.of(), List.of());
+        }
+    }
+}
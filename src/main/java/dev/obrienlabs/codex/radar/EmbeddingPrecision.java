@@ -0,0 +1,44 @@
+package dev.obrienlabs.codex.radar;
+
+enum EmbeddingPrecision {
+    F32("<f4", Float.BYTES),
+    F16("<f2", Short.BYTES),
+    INT8("|i1", Byte.BYTES);
+
+    private final String descr;
+    private final int bytes;
+
+    EmbeddingPrecision(String descr, int bytes) {
+        this.descr = descr;
+        this.bytes = bytes;
+    }
+
+    String descr() {
+        return descr;
+    }
+
+    int bytes() {
+        return bytes;
+    }
+
+    static float int8Scale(float[] row) {
+        float maxAbs = 0f;
+        for (float value : row) {
+            maxAbs = Math.max(maxAbs, Math.abs(value));
+        }
+        return maxAbs / 127f;
+    }
+
+    static byte quantize(float value, float inverseScale) {
+        return (byte) Math.max(-127, Math.min(127, Math.round(value * inverseScale)));
+    }
+
+    static EmbeddingPrecision fromDescr(String descr) {
+        for (EmbeddingPrecision precision : values()) {
+            if (precision.descr.equals(descr)) {
+                return precision;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported NPY dtype: " + descr);
+    }
+}
@@ -3,69 +3,469 @@ package dev.obrienlabs.codex.radar;
 import ai.djl.Application;
 import ai.djl.Device;
 import ai.djl.MalformedModelException;
+import ai.djl.Model;
 import ai.djl.inference.Predictor;
 import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.ImageFactory;
 import ai.djl.modality.cv.transform.CenterCrop;
 import ai.djl.modality.cv.transform.Normalize;
 import ai.djl.modality.cv.transform.Resize;
 import ai.djl.modality.cv.transform.ToTensor;
 import ai.djl.ndarray.NDArray;
 import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.ndarray.types.Shape;
 import ai.djl.repository.zoo.Criteria;
 import ai.djl.repository.zoo.ModelNotFoundException;
-import ai.djl.repository.zoo.ZooModel;
 import ai.djl.translate.Batchifier;
 import ai.djl.translate.Pipeline;
 import ai.djl.translate.TranslateException;
 import ai.djl.translate.Translator;
 import ai.djl.translate.TranslatorContext;
 
+import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 final class EmbeddingService implements AutoCloseable {
-    private final ZooModel<Image, float[]> model;
-    private final Predictor<Image, float[]> predictor;
+    static final int RESIZE = 256;
+    static final int CROP_SIZE = 224;
+    static final float[] MEAN = {0.485f, 0.456f, 0.406f};
+    static final float[] STD = {0.229f, 0.224f, 0.225f};
 
-    EmbeddingService(Device device) throws ModelNotFoundException, MalformedModelException, IOException {
-        Criteria<Image, float[]> criteria = Criteria.builder()
+    private final List<Backbone> backbones;
+    private final Backbone primary;
+    // Runs every backbone but the first for a batch while the calling thread runs the first; null with one.
+    private final ExecutorService fanOut;
+    private final AtomicLong inferenceNanos = new AtomicLong();
+    private final AtomicLong inferredImages = new AtomicLong();
+    private final LatencyHistogram inferenceLatency = new LatencyHistogram();
+    private final LatencyHistogram preprocessLatency = new LatencyHistogram();
+    private final long predictorNanos;
+    private long modelLoadNanos;
+    private long warmUpNanos;
+
+    EmbeddingService(Device device, Path modelPath)
+        throws ModelNotFoundException, MalformedModelException, IOException {
+        this(device, modelPath, 1, 0, 0);
+    }
+
+    EmbeddingService(Device device, int predictorCount, int interopThreads, int intraopThreads)
+        throws ModelNotFoundException, MalformedModelException, IOException {
+        this(device, (Path) null, predictorCount, interopThreads, intraopThreads);
+    }
+
+    // A null model path loads the ResNet-50 backbone from the DJL model zoo.
+    EmbeddingService(Device device, Path modelPath, int predictorCount, int interopThreads, int intraopThreads)
+        throws ModelNotFoundException, MalformedModelException, IOException {
+        this(device, List.of(BackboneSpec.primary(modelPath)), predictorCount, interopThreads, intraopThreads);
+    }
+
+    // The first backbone is the main model; every batch is embedded by all of them.
+    EmbeddingService(Device device, List<BackboneSpec> specs, int predictorCount, int interopThreads,
+                     int intraopThreads) throws ModelNotFoundException, MalformedModelException, IOException {
+        this(new TimedModels(device, specs, predictorCount, interopThreads, intraopThreads), specs, predictorCount);
+    }
+
+    private EmbeddingService(TimedModels loaded, List<BackboneSpec> specs, int predictorCount) {
+        this(loaded.models, specs, predictorCount);
+        this.modelLoadNanos = loaded.nanos;
+    }
+
+    // Takes ownership of the model; the benchmarks pass a small random-weight model here.
+    EmbeddingService(Model model, int predictorCount) {
+        this(List.of(model), List.of(BackboneSpec.DEFAULT), predictorCount);
+    }
+
+    // Takes ownership of the models, one per spec; the first is the main model.
+    EmbeddingService(List<Model> models, List<BackboneSpec> specs, int predictorCount) {
+        if (models.isEmpty() || models.size() != specs.size()) {
+            throw new IllegalArgumentException("Expected one model per backbone: " + models.size() + " models, "
+                + specs.size() + " backbones");
+        }
+        checkPredictorCount(predictorCount);
+        long start = System.nanoTime();
+        this.backbones = new ArrayList<>(models.size());
+        for (int i = 0; i < models.size(); i++) {
+            // Preprocessed batches are cropped for the main model, so only it gets a predictor for them.
+            backbones.add(new Backbone(specs.get(i), models.get(i), predictorCount, i == 0, preprocessLatency));
+        }
+        this.primary = backbones.get(0);
+        this.fanOut = backbones.size() == 1 ? null : Executors.newFixedThreadPool(
+            predictorCount * (backbones.size() - 1),
+            runnable -> Thread.ofPlatform().name("backbone-", 0).daemon().unstarted(runnable));
+        this.predictorNanos = System.nanoTime() - start;
+    }
+
+    private static Model loadModel(Device device, BackboneSpec spec)
+        throws ModelNotFoundException, MalformedModelException, IOException {
+        Criteria.Builder<Image, float[]> builder = Criteria.builder()
             .setTypes(Image.class, float[].class)
-            .optApplication(Application.CV.IMAGE_EMBEDDING)
-            .optFilter("backbone", "resnet50")
             .optDevice(device)
-            .optTranslator(new ResNetEmbeddingTranslator())
-            .build();
-        this.model = criteria.loadModel();
-        this.predictor = model.newPredictor();
+            .optTranslator(new ImageEmbeddingTranslator(spec, null));
+        if (spec.modelPath() == null) {
+            builder.optApplication(Application.CV.IMAGE_EMBEDDING).optFilter("backbone", spec.zooBackbone());
+        } else {
+            localModel(builder, spec.modelPath());
+        }
+        return builder.build().loadModel();
+    }
+
+    // A TorchScript file, or a directory holding one (plus optional serving.properties), loaded without
+    // touching the network, so air-gapped nodes can run from a copied model.
+    private static void localModel(Criteria.Builder<Image, float[]> builder, Path modelPath) throws IOException {
+        if (Files.isRegularFile(modelPath)) {
+            String fileName = modelPath.getFileName().toString();
+            int dot = fileName.lastIndexOf('.');
+            builder.optModelPath(modelPath.toAbsolutePath().getParent())
+                .optModelName(dot == -1 ? fileName : fileName.substring(0, dot));
+        } else if (Files.isDirectory(modelPath)) {
+            builder.optModelPath(modelPath);
+            List<Path> models;
+            try (var files = Files.list(modelPath)) {
+                models = files.filter(file -> file.getFileName().toString().endsWith(".pt")).toList();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            // DJL looks for <directory name>.pt by default; a single differently named file is used as is.
+            if (models.size() == 1) {
+                String fileName = models.get(0).getFileName().toString();
+                builder.optModelName(fileName.substring(0, fileName.length() - ".pt".length()));
+            }
+        } else {
+            throw new IllegalArgumentException("Model path does not exist: " + modelPath);
+        }
+        builder.optEngine("PyTorch");
+    }
+
+    // Names the main model's weights for the embedding cache: the zoo model, or a local path plus a hash of
+    // its files, so replacing a model in place is noticed too.
+    static String modelIdentity(Path modelPath) throws IOException {
+        if (modelPath == null) {
+            return "zoo:resnet50";
+        }
+        Path absolute = modelPath.toAbsolutePath().normalize();
+        if (!Files.isDirectory(absolute)) {
+            return absolute + "@" + ShardManifest.sha256(absolute);
+        }
+        StringBuilder identity = new StringBuilder(absolute.toString());
+        try (var files = Files.list(absolute)) {
+            for (Path file : files.filter(Files::isRegularFile).sorted().toList()) {
+                identity.append('|').append(file.getFileName()).append('@').append(ShardManifest.sha256(file));
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return identity.toString();
+    }
+
+    private static void checkPredictorCount(int predictorCount) {
+        if (predictorCount < 1) {
+            throw new IllegalArgumentException("Predictor count must be positive: " + predictorCount);
+        }
+    }
+
+    int predictorCount() {
+        return primary.predictors.size();
+    }
+
+    int backboneCount() {
+        return backbones.size();
+    }
+
+    BackboneSpec backbone(int index) {
+        return backbones.get(index).spec;
+    }
+
+    // The largest resize any backbone applies, so subsampled decoding never starves one of pixels.
+    int largestResize() {
+        int resize = 0;
+        for (Backbone backbone : backbones) {
+            resize = Math.max(resize, backbone.spec.resize());
+        }
+        return resize;
+    }
+
+    // Pushes synthetic batches through every predictor so native initialisation, allocator growth and JIT
+    // compilation happen before anything is timed; none of it is counted in the inference metrics.
+    void warmUp(int batchSize, int iterations, boolean preprocessed) throws TranslateException {
+        if (batchSize < 1 || iterations < 0) {
+            throw new IllegalArgumentException("Invalid warm-up of " + iterations + " batches of " + batchSize);
+        }
+        long start = System.nanoTime();
+        if (iterations > 0) {
+            PreprocessedBatch batch = preprocessed ? new PreprocessedBatch(batchSize) : null;
+            List<Image> images = Collections.nCopies(batchSize,
+                ImageFactory.getInstance().fromImage(new BufferedImage(RESIZE, RESIZE, BufferedImage.TYPE_INT_RGB)));
+            if (batch != null) {
+                batch.size(batchSize);
+            }
+            for (Backbone backbone : backbones) {
+                for (Predictors pair : backbone.predictors) {
+                    for (int i = 0; i < iterations; i++) {
+                        if (preprocessed && pair.preprocessed() != null) {
+                            pair.preprocessed().predict(batch);
+                        } else {
+                            pair.images().batchPredict(images);
+                        }
+                    }
+                }
+                backbone.latency.reset();
+            }
+            preprocessLatency.reset();
+        }
+        warmUpNanos = System.nanoTime() - start;
+    }
+
+    // Loading the weights plus creating the predictors; zero beyond predictor creation for injected models.
+    long modelLoadNanos() {
+        return modelLoadNanos + predictorNanos;
+    }
+
+    long warmUpNanos() {
+        return warmUpNanos;
+    }
+
+    // Embeds with the main model only.
+    List<float[]> embedBatch(List<Image> images) throws TranslateException, InterruptedException {
+        RadarEvents.Inference event = new RadarEvents.Inference();
+        event.begin();
+        long start = System.nanoTime();
+        try {
+            return primary.embed(images);
+        } finally {
+            record(event, start, images.size());
+        }
+    }
+
+    // One list of embeddings per backbone, in backbone order. The batch is decoded once and every backbone
+    // runs on it at the same time, so a batch takes as long as its slowest backbone.
+    List<List<float[]>> embedBackbones(List<Image> images) throws TranslateException, InterruptedException {
+        RadarEvents.Inference event = new RadarEvents.Inference();
+        event.begin();
+        long start = System.nanoTime();
+        List<Future<List<float[]>>> others = new ArrayList<>(backbones.size() - 1);
+        try {
+            for (Backbone backbone : backbones.subList(1, backbones.size())) {
+                others.add(fanOut.submit(() -> backbone.embed(images)));
+            }
+            List<List<float[]>> embeddings = new ArrayList<>(backbones.size());
+            embeddings.add(primary.embed(images));
+            for (Future<List<float[]>> other : others) {
+                embeddings.add(join(other));
+            }
+            return embeddings;
+        } finally {
+            for (Future<List<float[]>> other : others) {
+                other.cancel(true);
+            }
+            record(event, start, images.size());
+        }
+    }
+
+    private static List<float[]> join(Future<List<float[]>> future) throws TranslateException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TranslateException translate) {
+                throw translate;
+            }
+            if (cause instanceof InterruptedException interrupted) {
+                throw interrupted;
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new TranslateException(cause);
+        }
+    }
+
+    List<float[]> embedPreprocessed(PreprocessedBatch batch) throws TranslateException, InterruptedException {
+        Predictors pair = primary.idle.take();
+        RadarEvents.Inference event = new RadarEvents.Inference();
+        event.begin();
+        long start = System.nanoTime();
+        try {
+            return pair.preprocessed().predict(batch);
+        } finally {
+            record(event, start, batch.size());
+            primary.idle.offer(pair);
+        }
+    }
+
+    long inferenceNanos() {
+        return inferenceNanos.get();
     }
 
-    List<float[]> embedBatch(List<Image> images) throws TranslateException {
-        return predictor.batchPredict(images);
+    long inferredImages() {
+        return inferredImages.get();
+    }
+
+    // Predictor call per batch; the whole fan-out with several backbones.
+    LatencyHistogram inferenceLatency() {
+        return inferenceLatency;
+    }
+
+    // Translator preprocessing per image.
+    LatencyHistogram preprocessLatency() {
+        return preprocessLatency;
+    }
+
+    String backboneSummary(int index) {
+        Backbone backbone = backbones.get(index);
+        return String.format(Locale.ROOT, "Backbone %s: %d dimensions, %.1f ms mean / %.1f ms p99 per batch",
+            backbone.spec.name(), backbone.dimension, backbone.latency.meanMillis(),
+            backbone.latency.percentileMillis(99));
     }
 
     @Override
     public void close() {
-        predictor.close();
-        model.close();
+        if (fanOut != null) {
+            fanOut.shutdownNow();
+        }
+        for (Backbone backbone : backbones) {
+            backbone.close();
+        }
+    }
+
+    private void record(RadarEvents.Inference event, long start, int images) {
+        long elapsed = System.nanoTime() - start;
+        inferenceNanos.addAndGet(elapsed);
+        inferredImages.addAndGet(images);
+        inferenceLatency.recordNanos(elapsed);
+        event.batchSize = images;
+        event.commit();
+    }
+
+    private static final class TimedModels {
+        final List<Model> models;
+        final long nanos;
+
+        TimedModels(Device device, List<BackboneSpec> specs, int predictorCount, int interopThreads,
+                    int intraopThreads) throws ModelNotFoundException, MalformedModelException, IOException {
+            checkPredictorCount(predictorCount);
+            if (specs.isEmpty()) {
+                throw new IllegalArgumentException("At least one backbone is required.");
+            }
+            long start = System.nanoTime();
+            // Read by the PyTorch engine when it initializes, which happens on the first model load.
+            if (interopThreads > 0) {
+                System.setProperty("ai.djl.pytorch.num_interop_threads", Integer.toString(interopThreads));
+            }
+            if (intraopThreads > 0) {
+                System.setProperty("ai.djl.pytorch.num_threads", Integer.toString(intraopThreads));
+            }
+            List<Model> loaded = new ArrayList<>(specs.size());
+            try {
+                for (BackboneSpec spec : specs) {
+                    loaded.add(loadModel(device, spec));
+                }
+            } catch (ModelNotFoundException | MalformedModelException | IOException | RuntimeException e) {
+                loaded.forEach(Model::close);
+                throw e;
+            }
+            this.models = loaded;
+            this.nanos = System.nanoTime() - start;
+        }
+    }
+
+    // One loaded model with its own pool of predictors, so backbones never wait on each other's.
+    private static final class Backbone {
+        final BackboneSpec spec;
+        final Model model;
+        final List<Predictors> predictors;
+        final BlockingQueue<Predictors> idle;
+        final LatencyHistogram latency = new LatencyHistogram();
+        volatile int dimension;
+
+        Backbone(BackboneSpec spec, Model model, int predictorCount, boolean preprocessed,
+                 LatencyHistogram preprocessLatency) {
+            this.spec = spec;
+            this.model = model;
+            this.predictors = new ArrayList<>(predictorCount);
+            this.idle = new ArrayBlockingQueue<>(predictorCount);
+            for (int i = 0; i < predictorCount; i++) {
+                Predictors pair = new Predictors(
+                    model.newPredictor(new ImageEmbeddingTranslator(spec, preprocessLatency)),
+                    preprocessed ? model.newPredictor(new PreprocessedBatchTranslator()) : null);
+                predictors.add(pair);
+                idle.add(pair);
+            }
+        }
+
+        List<float[]> embed(List<Image> images) throws TranslateException, InterruptedException {
+            Predictors pair = idle.take();
+            long start = System.nanoTime();
+            try {
+                List<float[]> embeddings = pair.images().batchPredict(images);
+                if (!embeddings.isEmpty()) {
+                    dimension = embeddings.get(0).length;
+                }
+                return embeddings;
+            } finally {
+                latency.recordNanos(System.nanoTime() - start);
+                // offer, not put: a fan-out task cancelled mid-batch is interrupted here, and the queue always
+                // has room for the predictor it took.
+                idle.offer(pair);
+            }
+        }
+
+        void close() {
+            for (Predictors pair : predictors) {
+                if (pair.preprocessed() != null) {
+                    pair.preprocessed().close();
+                }
+                pair.images().close();
+            }
+            model.close();
+        }
+    }
+
+    private record Predictors(Predictor<Image, float[]> images,
+                              Predictor<PreprocessedBatch, List<float[]>> preprocessed) {
     }
 
-    private static final class ResNetEmbeddingTranslator implements Translator<Image, float[]> {
-        private static final float[] MEAN = {0.485f, 0.456f, 0.406f};
-        private static final float[] STD = {0.229f, 0.224f, 0.225f};
+    private static final class ImageEmbeddingTranslator implements Translator<Image, float[]> {
         private final Pipeline pipeline;
+        private final LatencyHistogram latency;
 
-        ResNetEmbeddingTranslator() {
+        ImageEmbeddingTranslator(BackboneSpec spec, LatencyHistogram latency) {
+            this.latency = latency;
             pipeline = new Pipeline()
-                .add(new Resize(256))
-                .add(new CenterCrop(224, 224))
+                .add(new Resize(spec.resize()))
+                .add(new CenterCrop(spec.crop(), spec.crop()))
                 .add(new ToTensor())
-                .add(new Normalize(MEAN, STD));
+                .add(new Normalize(spec.mean(), spec.std()));
         }
 
         @Override
         public NDList processInput(TranslatorContext ctx, Image input) {
+            RadarEvents.Preprocess event = new RadarEvents.Preprocess();
+            event.begin();
+            long start = System.nanoTime();
             NDArray array = input.toNDArray(ctx.getNDManager(), Image.Flag.COLOR);
             array = pipeline.transform(new NDList(array)).singletonOrThrow();
+            if (latency != null) {
+                latency.recordNanos(System.nanoTime() - start);
+            }
+            event.commit();
             return new NDList(array);
         }
 
@@ -80,4 +480,32 @@ final class EmbeddingService implements AutoCloseable {
             return Batchifier.STACK;
         }
     }
+
+    private static final class PreprocessedBatchTranslator implements Translator<PreprocessedBatch, List<float[]>> {
+        @Override
+        public NDList processInput(TranslatorContext ctx, PreprocessedBatch input) {
+            Shape shape = new Shape(input.size(), PreprocessedBatch.CHANNELS, CROP_SIZE, CROP_SIZE);
+            return new NDList(ctx.getNDManager().create(input.tensorBytes(), shape, DataType.FLOAT32));
+        }
+
+        @Override
+        public List<float[]> processOutput(TranslatorContext ctx, NDList list) {
+            NDArray output = list.singletonOrThrow();
+            int rows = Math.toIntExact(output.getShape().get(0));
+            float[] flat = output.toFloatArray();
+            int dimension = flat.length / rows;
+            List<float[]> embeddings = new ArrayList<>(rows);
+            for (int i = 0; i < rows; i++) {
+                float[] row = new float[dimension];
+                System.arraycopy(flat, i * dimension, row, 0, dimension);
+                embeddings.add(row);
+            }
+            return embeddings;
+        }
+
+        @Override
+        public Batchifier getBatchifier() {
+            return null;
+        }
+    }
 }
@@ -0,0 +1,29 @@
+package dev.obrienlabs.codex.radar;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+interface EmbeddingSink extends AutoCloseable {
+    default void write(List<Path> paths, List<FileFingerprint> fingerprints, List<float[]> embeddings)
+        throws IOException {
+        write(paths, fingerprints, Collections.nCopies(paths.size(), TileGrid.WHOLE_FRAME), embeddings);
+    }
+
+    // Each row is one frame, or one tile of a frame in tile mode.
+    void write(List<Path> paths, List<FileFingerprint> fingerprints, List<TileGrid.Tile> tiles,
+               List<float[]> embeddings) throws IOException;
+
+    long rowCount();
+
+    QuantizationStats quantizationStats();
+
+    // Completes the output after the last write of a successful run. Closing without it only releases
+    // resources, so a failed run never leaves an output that looks complete.
+    default void finish() throws IOException {
+    }
+
+    @Override
+    void close() throws IOException;
+}
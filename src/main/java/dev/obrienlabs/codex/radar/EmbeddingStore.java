@@ -0,0 +1,178 @@
+package dev.obrienlabs.codex.radar;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+final class EmbeddingStore {
+    private static final Pattern DESCR = Pattern.compile("'descr':\\s*'([^']+)'");
+    private static final Pattern FORTRAN_ORDER = Pattern.compile("'fortran_order':\\s*(True|False)");
+    private static final Pattern SHAPE = Pattern.compile("'shape':\\s*\\(([^)]*)\\)");
+
+    private final MappedFile file;
+    private final long dataOffset;
+    private final long rowCount;
+    private final int dimension;
+    private final EmbeddingPrecision precision;
+    private final MappedFile scales;
+    private final long scalesOffset;
+    private final PathIndex index;
+
+    private EmbeddingStore(MappedFile file, NpyHeader header, EmbeddingPrecision precision,
+                           MappedFile scales, long scalesOffset, PathIndex index) {
+        this.file = file;
+        this.dataOffset = header.dataOffset();
+        this.rowCount = header.shape()[0];
+        this.dimension = Math.toIntExact(header.shape()[1]);
+        this.precision = precision;
+        this.scales = scales;
+        this.scalesOffset = scalesOffset;
+        this.index = index;
+    }
+
+    static EmbeddingStore open(Path npy) throws IOException {
+        NpyHeader header = NpyHeader.read(npy);
+        EmbeddingPrecision precision;
+        try {
+            precision = EmbeddingPrecision.fromDescr(header.descr());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unsupported NPY dtype " + header.descr() + " in " + npy, e);
+        }
+        if (header.shape().length != 2) {
+            throw new IOException("Expected a 2-D embedding matrix in " + npy);
+        }
+        int dimension = Math.toIntExact(header.shape()[1]);
+        MappedFile file = MappedFile.map(npy, dimension * precision.bytes());
+
+        MappedFile scales = null;
+        long scalesOffset = 0;
+        if (precision == EmbeddingPrecision.INT8) {
+            Path scalesPath = NpyWriter.scalesPath(npy);
+            NpyHeader scalesHeader = NpyHeader.read(scalesPath);
+            if (!scalesHeader.descr().equals(EmbeddingPrecision.F32.descr())
+                || scalesHeader.shape().length != 1 || scalesHeader.shape()[0] != header.shape()[0]) {
+                throw new IOException("Scale factors in " + scalesPath + " do not match " + npy);
+            }
+            scales = MappedFile.map(scalesPath, Float.BYTES);
+            scalesOffset = scalesHeader.dataOffset();
+        }
+        Path indexPath = PathIndex.pathFor(npy);
+        PathIndex index = Files.exists(indexPath) ? PathIndex.open(indexPath) : null;
+        return new EmbeddingStore(file, header, precision, scales, scalesOffset, index);
+    }
+
+    long rowCount() {
+        return rowCount;
+    }
+
+    int dimension() {
+        return dimension;
+    }
+
+    EmbeddingPrecision precision() {
+        return precision;
+    }
+
+    // Zero-copy for fp32 output; reduced-precision rows are dequantized into a new buffer.
+    FloatBuffer row(long row) {
+        if (precision != EmbeddingPrecision.F32) {
+            return FloatBuffer.wrap(read(row, new float[dimension]));
+        }
+        return rowBytes(row).asFloatBuffer();
+    }
+
+    float[] read(long row, float[] target) {
+        ByteBuffer bytes = rowBytes(row);
+        switch (precision) {
+            case F32 -> bytes.asFloatBuffer().get(target, 0, dimension);
+            case F16 -> {
+                for (int i = 0; i < dimension; i++) {
+                    target[i] = Float.float16ToFloat(bytes.getShort(i * Short.BYTES));
+                }
+            }
+            case INT8 -> {
+                float scale = scales.slice(scalesOffset + row * Float.BYTES, Float.BYTES).getFloat(0);
+                for (int i = 0; i < dimension; i++) {
+                    target[i] = bytes.get(i) * scale;
+                }
+            }
+        }
+        return target;
+    }
+
+    private ByteBuffer rowBytes(long row) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("Row " + row + " outside store of " + rowCount + " rows");
+        }
+        int rowBytes = dimension * precision.bytes();
+        return file.slice(dataOffset + row * rowBytes, rowBytes);
+    }
+
+    Optional<FloatBuffer> row(String path) {
+        if (index == null) {
+            throw new IllegalStateException("No path index found next to the embedding matrix.");
+        }
+        return index.rowOf(path).stream().mapToObj(this::row).findFirst();
+    }
+
+    boolean hasPathIndex() {
+        return index != null;
+    }
+
+    String path(long row) {
+        if (index == null) {
+            throw new IllegalStateException("No path index found next to the embedding matrix.");
+        }
+        return index.path(row);
+    }
+
+    record NpyHeader(String descr, long[] shape, long dataOffset) {
+        static NpyHeader read(Path npy) throws IOException {
+            try (InputStream in = Files.newInputStream(npy)) {
+                byte[] preamble = in.readNBytes(8);
+                if (preamble.length < 8 || (preamble[0] & 0xff) != 0x93 || preamble[1] != 'N') {
+                    throw new IOException("Not an NPY file: " + npy);
+                }
+                int major = preamble[6];
+                int lengthBytes = major == 1 ? 2 : 4;
+                ByteBuffer length = ByteBuffer.wrap(in.readNBytes(lengthBytes)).order(ByteOrder.LITTLE_ENDIAN);
+                int headerLength = major == 1 ? Short.toUnsignedInt(length.getShort()) : length.getInt();
+                String header = new String(in.readNBytes(headerLength), StandardCharsets.ISO_8859_1);
+                if ("True".equals(group(FORTRAN_ORDER, header, npy))) {
+                    throw new IOException("Fortran-ordered NPY files are not supported: " + npy);
+                }
+                return new NpyHeader(group(DESCR, header, npy), parseShape(group(SHAPE, header, npy)),
+                    8L + lengthBytes + headerLength);
+            }
+        }
+
+        private static String group(Pattern pattern, String header, Path npy) throws IOException {
+            Matcher matcher = pattern.matcher(header);
+            if (!matcher.find()) {
+                throw new IOException("Malformed NPY header in " + npy + ": " + header.trim());
+            }
+            return matcher.group(1);
+        }
+
+        private static long[] parseShape(String shape) {
+            String[] parts = shape.split(",");
+            int count = 0;
+            long[] dims = new long[parts.length];
+            for (String part : parts) {
+                if (!part.isBlank()) {
+                    dims[count++] = Long.parseLong(part.trim());
+                }
+            }
+            return Arrays.copyOf(dims, count);
+        }
+    }
+}
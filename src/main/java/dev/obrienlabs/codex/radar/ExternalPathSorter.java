@@ -0,0 +1,158 @@
+package dev.obrienlabs.codex.radar;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+
+final class ExternalPathSorter implements Iterator<Path>, Closeable {
+    static final int DEFAULT_RUN_SIZE = 1 << 18;
+
+    private static final Comparator<Entry> ORDER = Comparator.comparing(Entry::key).thenComparing(Entry::path);
+
+    private final List<Path> runFiles;
+    private final Path spillDirectory;
+    private final Iterator<Entry> memory;
+    private final PriorityQueue<RunReader> merge;
+
+    private ExternalPathSorter(List<Entry> entries, Path spillDirectory, List<Path> runFiles) throws IOException {
+        this.spillDirectory = spillDirectory;
+        this.runFiles = runFiles;
+        if (runFiles.isEmpty()) {
+            entries.sort(ORDER);
+            this.memory = entries.iterator();
+            this.merge = null;
+        } else {
+            this.memory = null;
+            this.merge = new PriorityQueue<>(Comparator.comparing(RunReader::head, ORDER));
+            for (Path run : runFiles) {
+                RunReader reader = new RunReader(run);
+                if (reader.advance()) {
+                    merge.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+        }
+    }
+
+    static ExternalPathSorter sort(Iterator<Path> paths, Function<Path, String> key, int runSize) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        List<Path> runFiles = new ArrayList<>();
+        Path spillDirectory = null;
+        while (paths.hasNext()) {
+            Path path = paths.next();
+            entries.add(new Entry(key.apply(path), path.toString()));
+            if (entries.size() >= runSize) {
+                if (spillDirectory == null) {
+                    spillDirectory = Files.createTempDirectory("radar-scan");
+                }
+                runFiles.add(spill(entries, spillDirectory.resolve("run-" + runFiles.size())));
+                entries.clear();
+            }
+        }
+        if (!runFiles.isEmpty() && !entries.isEmpty()) {
+            runFiles.add(spill(entries, spillDirectory.resolve("run-" + runFiles.size())));
+            entries.clear();
+        }
+        return new ExternalPathSorter(entries, spillDirectory, runFiles);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return memory != null ? memory.hasNext() : !merge.isEmpty();
+    }
+
+    @Override
+    public Path next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if (memory != null) {
+            return Path.of(memory.next().path());
+        }
+        RunReader reader = merge.poll();
+        Path next = Path.of(reader.head().path());
+        try {
+            if (reader.advance()) {
+                merge.add(reader);
+            } else {
+                reader.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return next;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (merge != null) {
+            for (RunReader reader : merge) {
+                reader.close();
+            }
+            merge.clear();
+        }
+        for (Path run : runFiles) {
+            Files.deleteIfExists(run);
+        }
+        if (spillDirectory != null) {
+            Files.deleteIfExists(spillDirectory);
+        }
+    }
+
+    private static Path spill(List<Entry> entries, Path run) throws IOException {
+        entries.sort(ORDER);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run)))) {
+            for (Entry entry : entries) {
+                out.writeUTF(entry.key());
+                out.writeUTF(entry.path());
+            }
+        }
+        return run;
+    }
+
+    private record Entry(String key, String path) {
+    }
+
+    private static final class RunReader implements AutoCloseable {
+        private final DataInputStream in;
+        private Entry head;
+
+        RunReader(Path run) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run)));
+        }
+
+        Entry head() {
+            return head;
+        }
+
+        boolean advance() throws IOException {
+            try {
+                head = new Entry(in.readUTF(), in.readUTF());
+                return true;
+            } catch (EOFException e) {
+                head = null;
+                return false;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
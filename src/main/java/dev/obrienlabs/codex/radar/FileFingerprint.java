@@ -0,0 +1,38 @@
+package dev.obrienlabs.codex.radar;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+record FileFingerprint(long size, long modifiedMillis, byte[] contentHash) {
+    static final int HASH_BYTES = 32;
+
+    static FileFingerprint stat(Path path) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        return new FileFingerprint(attributes.size(), attributes.lastModifiedTime().toMillis(), null);
+    }
+
+    static byte[] hash(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+
+    FileFingerprint withContentHash(byte[] hash) {
+        return new FileFingerprint(size, modifiedMillis, hash);
+    }
+
+    boolean sameStat(FileFingerprint other) {
+        return size == other.size && modifiedMillis == other.modifiedMillis;
+    }
+
+    String contentHashHex() {
+        return contentHash == null ? "" : HexFormat.of().formatHex(contentHash);
+    }
+}
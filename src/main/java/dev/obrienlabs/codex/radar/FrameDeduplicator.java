@@ -0,0 +1,135 @@
+package dev.obrienlabs.codex.radar;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Skips inference for frames that barely differ from the last frame embedded for the same station and
+// reuses that frame's embedding instead. Frames are compared with the reference frame rather than their
+// immediate predecessor, so a slow drift of small changes still triggers a fresh embedding.
+final class FrameDeduplicator {
+    static final int THUMBNAIL_SIZE = 32;
+    private static final int SAMPLES_PER_CELL = 4;
+
+    private final double threshold;
+    // Read and written only by the pipeline's infer stage.
+    private final Map<String, Reference> references = new HashMap<>();
+    // Read and written only by the pipeline's write stage, which sees frames in the same order.
+    private final Map<String, float[]> referenceEmbeddings = new HashMap<>();
+    private final AtomicLong compared = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong identical = new AtomicLong();
+
+    FrameDeduplicator(double threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Dedup threshold must not be negative: " + threshold);
+        }
+        this.threshold = threshold;
+    }
+
+    // Mean absolute difference per channel, on a 0-255 scale, between two frames' thumbnails.
+    static double distance(byte[] a, byte[] b) {
+        long sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += Math.abs((a[i] & 0xff) - (b[i] & 0xff));
+        }
+        return (double) sum / a.length;
+    }
+
+    // A 32x32 RGB thumbnail of cell means, each from a 4x4 grid of point samples.
+    static byte[] thumbnail(BufferedImage image) {
+        FusedPreprocessor.PixelReader reader = FusedPreprocessor.PixelReader.of(image);
+        int[] xs = samplePositions(image.getWidth());
+        int[] ys = samplePositions(image.getHeight());
+        byte[] thumbnail = new byte[THUMBNAIL_SIZE * THUMBNAIL_SIZE * 3];
+        int samples = SAMPLES_PER_CELL * SAMPLES_PER_CELL;
+        int index = 0;
+        for (int cy = 0; cy < THUMBNAIL_SIZE; cy++) {
+            for (int cx = 0; cx < THUMBNAIL_SIZE; cx++) {
+                int r = 0;
+                int g = 0;
+                int b = 0;
+                for (int sy = 0; sy < SAMPLES_PER_CELL; sy++) {
+                    for (int sx = 0; sx < SAMPLES_PER_CELL; sx++) {
+                        int rgb = reader.rgb(xs[cx * SAMPLES_PER_CELL + sx], ys[cy * SAMPLES_PER_CELL + sy]);
+                        r += rgb >>> 16 & 0xff;
+                        g += rgb >>> 8 & 0xff;
+                        b += rgb & 0xff;
+                    }
+                }
+                thumbnail[index++] = (byte) (r / samples);
+                thumbnail[index++] = (byte) (g / samples);
+                thumbnail[index++] = (byte) (b / samples);
+            }
+        }
+        return thumbnail;
+    }
+
+    private static int[] samplePositions(int extent) {
+        int count = THUMBNAIL_SIZE * SAMPLES_PER_CELL;
+        int[] positions = new int[count];
+        for (int i = 0; i < count; i++) {
+            positions[i] = (int) ((2L * i + 1) * extent / (2L * count));
+        }
+        return positions;
+    }
+
+    // Decides in input order whether a decoded frame can reuse its station's reference embedding.
+    boolean isDuplicate(Path path, FileFingerprint fingerprint, byte[] thumbnail) {
+        String station = RadarFileName.parse(path).station();
+        Reference reference = references.get(station);
+        compared.incrementAndGet();
+        if (reference != null) {
+            if (fingerprint != null && fingerprint.contentHash() != null
+                && Arrays.equals(fingerprint.contentHash(), reference.contentHash())) {
+                identical.incrementAndGet();
+                reused.incrementAndGet();
+                return true;
+            }
+            if (distance(thumbnail, reference.thumbnail()) <= threshold) {
+                reused.incrementAndGet();
+                return true;
+            }
+        }
+        references.put(station, new Reference(fingerprint == null ? null : fingerprint.contentHash(), thumbnail));
+        return false;
+    }
+
+    void referenceWritten(Path path, float[] embedding) {
+        referenceEmbeddings.put(RadarFileName.parse(path).station(), embedding);
+    }
+
+    float[] reusedEmbedding(Path path) {
+        float[] embedding = referenceEmbeddings.get(RadarFileName.parse(path).station());
+        if (embedding == null) {
+            throw new IllegalStateException("No reference embedding written before duplicate " + path);
+        }
+        return embedding;
+    }
+
+    long compared() {
+        return compared.get();
+    }
+
+    long reused() {
+        return reused.get();
+    }
+
+    long identical() {
+        return identical.get();
+    }
+
+    String summary() {
+        long frames = compared();
+        return String.format(Locale.ROOT,
+            "Dedup: reused embeddings for %d of %d decoded frames (%d byte-identical), saving %.1f%% of inference",
+            reused(), frames, identical(), frames == 0 ? 0.0 : 100.0 * reused() / frames);
+    }
+
+    private record Reference(byte[] contentHash, byte[] thumbnail) {
+    }
+}
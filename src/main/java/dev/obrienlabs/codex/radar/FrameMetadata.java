@@ -0,0 +1,92 @@
+package dev.obrienlabs.codex.radar;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+// Memory-mapped reader for the metadata written by MetadataWriter; row lookups read one offset and one record.
+final class FrameMetadata {
+    private final MappedFile records;
+    private final MappedFile offsets;
+    private final long rowCount;
+    private final long dataEnd;
+
+    private FrameMetadata(MappedFile records, MappedFile offsets, MetadataWriter.Header header) {
+        this.records = records;
+        this.offsets = offsets;
+        this.rowCount = header.rowCount();
+        this.dataEnd = header.dataEnd();
+    }
+
+    static FrameMetadata open(Path output) throws IOException {
+        Path metadataPath = MetadataWriter.metadataPath(output);
+        MetadataWriter.Header header = MetadataWriter.Header.read(metadataPath);
+        Path offsetsPath = MetadataWriter.offsetsPath(output);
+        MappedFile offsets = MappedFile.map(offsetsPath, Long.BYTES);
+        if (offsets.size() < MetadataWriter.OFFSETS_HEADER_SIZE + header.rowCount() * Long.BYTES
+            || offsets.getInt(0) != MetadataWriter.OFFSETS_MAGIC) {
+            throw new IOException("Offset table " + offsetsPath + " does not match " + metadataPath);
+        }
+        MappedFile records = MappedFile.map(metadataPath, header.maxRecordLength());
+        if (records.size() < header.dataEnd()) {
+            throw new IOException("Metadata is truncated: " + metadataPath);
+        }
+        return new FrameMetadata(records, offsets, header);
+    }
+
+    long rowCount() {
+        return rowCount;
+    }
+
+    Frame frame(long row) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("Row " + row + " outside metadata of " + rowCount + " rows");
+        }
+        long start = offset(row);
+        long end = row + 1 < rowCount ? offset(row + 1) : dataEnd;
+        ByteBuffer record = records.slice(start, Math.toIntExact(end - start));
+        long timestamp = record.getLong();
+        long size = record.getLong();
+        long modifiedMillis = record.getLong();
+        byte[] hash = new byte[FileFingerprint.HASH_BYTES];
+        record.get(hash);
+        TileGrid.Tile tile = new TileGrid.Tile(record.getInt(), record.getInt(), record.getInt(), record.getInt());
+        byte[] station = new byte[Short.toUnsignedInt(record.getShort())];
+        byte[] path = new byte[Short.toUnsignedInt(record.getShort())];
+        record.get(station).get(path);
+        return new Frame(new String(path, StandardCharsets.UTF_8), new String(station, StandardCharsets.UTF_8),
+            timestamp, new FileFingerprint(size, modifiedMillis, hash), tile);
+    }
+
+    private long offset(long row) {
+        return offsets.getLong(MetadataWriter.OFFSETS_HEADER_SIZE + row * Long.BYTES);
+    }
+
+    void exportJsonl(Writer writer) throws IOException {
+        for (long row = 0; row < rowCount; row++) {
+            writer.write(frame(row).toJson(row));
+            writer.write('\n');
+        }
+    }
+
+    record Frame(String path, String station, long timestamp, FileFingerprint fingerprint, TileGrid.Tile tile) {
+        boolean hasTimestamp() {
+            return timestamp != RadarFileName.UNKNOWN_TIMESTAMP;
+        }
+
+        String toJson(long row) {
+            return "{\"row\":" + row
+                + ",\"path\":\"" + MetadataWriter.escape(path) + "\""
+                + ",\"station\":\"" + MetadataWriter.escape(station) + "\""
+                + ",\"timestamp\":" + (hasTimestamp() ? "\"" + timestamp + "\"" : "null")
+                + ",\"size\":" + fingerprint.size()
+                + ",\"modified\":" + fingerprint.modifiedMillis()
+                + ",\"sha256\":\"" + fingerprint.contentHashHex() + "\""
+                + (tile.wholeFrame() ? "" : ",\"tile\":{\"x\":" + tile.x() + ",\"y\":" + tile.y()
+                    + ",\"width\":" + tile.width() + ",\"height\":" + tile.height() + "}")
+                + "}";
+        }
+    }
+}
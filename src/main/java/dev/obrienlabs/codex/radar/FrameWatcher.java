@@ -0,0 +1,125 @@
+package dev.obrienlabs.codex.radar;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Reports image files under a root once their size and modification time have stopped changing.
+final class FrameWatcher implements AutoCloseable {
+    private static final long POLL_MILLIS = 250;
+
+    private final Path root;
+    private final long settleNanos;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Map<Path, Pending> pending = new HashMap<>();
+
+    FrameWatcher(Path root, long settleMillis) throws IOException {
+        if (!Files.isDirectory(root)) {
+            throw new IllegalArgumentException("--watch needs a directory input: " + root);
+        }
+        this.root = root;
+        this.settleNanos = TimeUnit.MILLISECONDS.toNanos(settleMillis);
+        this.watchService = root.getFileSystem().newWatchService();
+        registerTree(root, false);
+    }
+
+    // Blocks for up to one poll interval and returns the frames that have finished being written.
+    List<Path> poll() throws IOException, InterruptedException {
+        WatchKey key = watchService.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        while (key != null) {
+            handle(key);
+            key = watchService.poll();
+        }
+        List<Path> ready = new ArrayList<>();
+        long now = System.nanoTime();
+        Iterator<Map.Entry<Path, Pending>> entries = pending.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Path, Pending> entry = entries.next();
+            Path path = entry.getKey();
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (IOException e) {
+                entries.remove();
+                continue;
+            }
+            Pending previous = entry.getValue();
+            long modified = attributes.lastModifiedTime().toMillis();
+            if (attributes.size() != previous.size() || modified != previous.modifiedMillis()) {
+                entry.setValue(new Pending(attributes.size(), modified, now));
+            } else if (attributes.size() > 0 && now - previous.changedNanos() >= settleNanos) {
+                ready.add(path);
+                entries.remove();
+            }
+        }
+        ready.sort(null);
+        return ready;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private void handle(WatchKey key) throws IOException {
+        Path directory = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                registerTree(root, true);
+                continue;
+            }
+            if (directory == null) {
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (Files.isDirectory(path)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    registerTree(path, true);
+                }
+            } else {
+                track(path);
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+    // Files already present in a newly seen directory may have landed before it was registered.
+    private void registerTree(Path start, boolean trackFiles) throws IOException {
+        try (Stream<Path> tree = Files.walk(start)) {
+            for (Path path : (Iterable<Path>) tree::iterator) {
+                if (Files.isDirectory(path)) {
+                    if (!directories.containsValue(path)) {
+                        directories.put(path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY), path);
+                    }
+                } else if (trackFiles) {
+                    track(path);
+                }
+            }
+        }
+    }
+
+    private void track(Path path) {
+        if (ImagePathLoader.hasSupportedExtension(path)) {
+            pending.putIfAbsent(path, new Pending(-1, -1, System.nanoTime()));
+        }
+    }
+
+    private record Pending(long size, long modifiedMillis, long changedNanos) {
+    }
+}
@@ -0,0 +1,234 @@
+package dev.obrienlabs.codex.radar;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.nio.FloatBuffer;
+
+// Resize, center crop, scale to [0, 1] and normalize in one pass, matching the DJL translator pipeline.
+final class FusedPreprocessor {
+    private static final float[] SCALE = new float[PreprocessedBatch.CHANNELS];
+    private static final float[] BIAS = new float[PreprocessedBatch.CHANNELS];
+    private static final int PALETTE_SIZE = 256;
+
+    static {
+        for (int c = 0; c < PreprocessedBatch.CHANNELS; c++) {
+            SCALE[c] = 1f / (255f * EmbeddingService.STD[c]);
+            BIAS[c] = -EmbeddingService.MEAN[c] / EmbeddingService.STD[c];
+        }
+    }
+
+    private FusedPreprocessor() {
+    }
+
+    static void preprocess(BufferedImage image, PreprocessedBatch batch, int slot) {
+        PreprocessedBatch.Scratch scratch = batch.scratch(slot);
+        int offset = (EmbeddingService.RESIZE - EmbeddingService.CROP_SIZE) / 2;
+        axis(image.getWidth(), offset, scratch.x0, scratch.x1, scratch.wx);
+        axis(image.getHeight(), offset, scratch.y0, scratch.y1, scratch.wy);
+        fill(image, batch, slot);
+    }
+
+    // Scales a tile straight to the crop size; the tile is already the region of interest, so nothing is cropped.
+    static void preprocess(BufferedImage image, TileGrid.Tile tile, PreprocessedBatch batch, int slot) {
+        PreprocessedBatch.Scratch scratch = batch.scratch(slot);
+        axis(tile.x(), tile.width(), EmbeddingService.CROP_SIZE, 0, scratch.x0, scratch.x1, scratch.wx);
+        axis(tile.y(), tile.height(), EmbeddingService.CROP_SIZE, 0, scratch.y0, scratch.y1, scratch.wy);
+        fill(image, batch, slot);
+    }
+
+    private static void fill(BufferedImage image, PreprocessedBatch batch, int slot) {
+        IndexReader indices = IndexReader.of(image);
+        if (indices != null) {
+            fillIndexed(indices, palette((IndexColorModel) image.getColorModel()), batch, slot);
+        } else {
+            fill(PixelReader.of(image), batch, slot);
+        }
+    }
+
+    // Normalized values for every palette entry, one plane per channel. Interpolation is linear, so
+    // interpolating normalized entries gives the same result as normalizing interpolated RGB.
+    static float[] palette(IndexColorModel colorModel) {
+        int[] rgbs = new int[Math.max(PALETTE_SIZE, colorModel.getMapSize())];
+        colorModel.getRGBs(rgbs);
+        float[] lut = new float[PreprocessedBatch.CHANNELS * PALETTE_SIZE];
+        for (int c = 0; c < PreprocessedBatch.CHANNELS; c++) {
+            int shift = 16 - 8 * c;
+            for (int i = 0; i < PALETTE_SIZE; i++) {
+                lut[c * PALETTE_SIZE + i] = (rgbs[i] >>> shift & 0xff) * SCALE[c] + BIAS[c];
+            }
+        }
+        return lut;
+    }
+
+    // Samples palette indices and looks them up, so indexed frames are never expanded to RGB.
+    private static void fillIndexed(IndexReader indices, float[] lut, PreprocessedBatch batch, int slot) {
+        PreprocessedBatch.Scratch scratch = batch.scratch(slot);
+        int crop = EmbeddingService.CROP_SIZE;
+        FloatBuffer out = batch.floats();
+        int plane = crop * crop;
+        int base = slot * PreprocessedBatch.IMAGE_FLOATS;
+        for (int y = 0; y < crop; y++) {
+            int y0 = scratch.y0[y];
+            int y1 = scratch.y1[y];
+            float wy = scratch.wy[y];
+            for (int x = 0; x < crop; x++) {
+                int x0 = scratch.x0[x];
+                int x1 = scratch.x1[x];
+                float wx = scratch.wx[x];
+                int i00 = indices.index(x0, y0);
+                int i01 = indices.index(x1, y0);
+                int i10 = indices.index(x0, y1);
+                int i11 = indices.index(x1, y1);
+                int index = base + y * crop + x;
+                for (int c = 0; c < PreprocessedBatch.CHANNELS; c++) {
+                    int channel = c * PALETTE_SIZE;
+                    float top = lerp(lut[channel + i00], lut[channel + i01], wx);
+                    float bottom = lerp(lut[channel + i10], lut[channel + i11], wx);
+                    out.put(index + c * plane, lerp(top, bottom, wy));
+                }
+            }
+        }
+    }
+
+    private static void fill(PixelReader reader, PreprocessedBatch batch, int slot) {
+        PreprocessedBatch.Scratch scratch = batch.scratch(slot);
+        int crop = EmbeddingService.CROP_SIZE;
+        FloatBuffer out = batch.floats();
+        int plane = crop * crop;
+        int base = slot * PreprocessedBatch.IMAGE_FLOATS;
+        for (int y = 0; y < crop; y++) {
+            int y0 = scratch.y0[y];
+            int y1 = scratch.y1[y];
+            float wy = scratch.wy[y];
+            for (int x = 0; x < crop; x++) {
+                int x0 = scratch.x0[x];
+                int x1 = scratch.x1[x];
+                float wx = scratch.wx[x];
+                int p00 = reader.rgb(x0, y0);
+                int p01 = reader.rgb(x1, y0);
+                int p10 = reader.rgb(x0, y1);
+                int p11 = reader.rgb(x1, y1);
+                int index = base + y * crop + x;
+                for (int c = 0; c < PreprocessedBatch.CHANNELS; c++) {
+                    int shift = 16 - 8 * c;
+                    float top = lerp((p00 >>> shift) & 0xff, (p01 >>> shift) & 0xff, wx);
+                    float bottom = lerp((p10 >>> shift) & 0xff, (p11 >>> shift) & 0xff, wx);
+                    out.put(index + c * plane, lerp(top, bottom, wy) * SCALE[c] + BIAS[c]);
+                }
+            }
+        }
+    }
+
+    // Half-pixel-centre bilinear mapping from output index to source, as the engine's resize does.
+    static void axis(int sourceSize, int offset, int[] low, int[] high, float[] weight) {
+        axis(0, sourceSize, EmbeddingService.RESIZE, offset, low, high, weight);
+    }
+
+    private static void axis(int sourceStart, int sourceSize, int targetSize, int offset, int[] low, int[] high,
+                             float[] weight) {
+        float scale = sourceSize / (float) targetSize;
+        for (int i = 0; i < low.length; i++) {
+            float source = Math.max(0f, (i + offset + 0.5f) * scale - 0.5f);
+            int lo = Math.min((int) source, sourceSize - 1);
+            low[i] = sourceStart + lo;
+            high[i] = sourceStart + Math.min(lo + 1, sourceSize - 1);
+            weight[i] = source - lo;
+        }
+    }
+
+    private static float lerp(float a, float b, float t) {
+        return a + (b - a) * t;
+    }
+
+    // Palette indices of up to eight bits, either one per byte or packed several to a byte.
+    interface IndexReader {
+        int index(int x, int y);
+
+        static IndexReader of(BufferedImage image) {
+            Raster raster = image.getRaster();
+            if (!(image.getColorModel() instanceof IndexColorModel colorModel) || colorModel.getPixelSize() > 8
+                || raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0
+                || !(raster.getDataBuffer() instanceof DataBufferByte buffer) || buffer.getNumBanks() != 1) {
+                return null;
+            }
+            byte[] data = buffer.getData();
+            int start = buffer.getOffset();
+            if (raster.getSampleModel() instanceof ComponentSampleModel model && model.getNumBands() == 1) {
+                int pixelStride = model.getPixelStride();
+                int scanlineStride = model.getScanlineStride();
+                int band = start + model.getBandOffsets()[0];
+                return (x, y) -> data[band + y * scanlineStride + x * pixelStride] & 0xff;
+            }
+            if (raster.getSampleModel() instanceof MultiPixelPackedSampleModel model) {
+                int bits = model.getPixelBitStride();
+                int mask = (1 << bits) - 1;
+                return (x, y) -> data[start + model.getOffset(x, y)] >>> 8 - bits - model.getBitOffset(x) & mask;
+            }
+            return null;
+        }
+    }
+
+    interface PixelReader {
+        int rgb(int x, int y);
+
+        static PixelReader of(BufferedImage image) {
+            IndexReader indices = IndexReader.of(image);
+            if (indices != null) {
+                IndexColorModel palette = (IndexColorModel) image.getColorModel();
+                int[] rgbs = new int[Math.max(PALETTE_SIZE, palette.getMapSize())];
+                palette.getRGBs(rgbs);
+                return (x, y) -> rgbs[indices.index(x, y)] & 0xffffff;
+            }
+            Raster raster = image.getRaster();
+            ColorModel colorModel = image.getColorModel();
+            boolean untranslated = raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0;
+            if (untranslated && raster.getDataBuffer() instanceof DataBufferByte buffer
+                && buffer.getNumBanks() == 1
+                && raster.getSampleModel() instanceof ComponentSampleModel model) {
+                byte[] data = buffer.getData();
+                int start = buffer.getOffset();
+                int pixelStride = model.getPixelStride();
+                int scanlineStride = model.getScanlineStride();
+                int[] bands = model.getBandOffsets();
+                int type = colorModel.getColorSpace().getType();
+                if (type == ColorSpace.TYPE_RGB && bands.length >= 3) {
+                    int r = bands[0];
+                    int g = bands[1];
+                    int b = bands[2];
+                    return (x, y) -> {
+                        int i = start + y * scanlineStride + x * pixelStride;
+                        return (data[i + r] & 0xff) << 16 | (data[i + g] & 0xff) << 8 | (data[i + b] & 0xff);
+                    };
+                }
+            }
+            if (untranslated && raster.getDataBuffer() instanceof DataBufferInt buffer
+                && buffer.getNumBanks() == 1
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel model
+                && colorModel instanceof DirectColorModel direct
+                && Integer.bitCount(direct.getRedMask()) == 8
+                && Integer.bitCount(direct.getGreenMask()) == 8
+                && Integer.bitCount(direct.getBlueMask()) == 8) {
+                int[] data = buffer.getData();
+                int start = buffer.getOffset();
+                int scanlineStride = model.getScanlineStride();
+                int r = Integer.numberOfTrailingZeros(direct.getRedMask());
+                int g = Integer.numberOfTrailingZeros(direct.getGreenMask());
+                int b = Integer.numberOfTrailingZeros(direct.getBlueMask());
+                return (x, y) -> {
+                    int pixel = data[start + y * scanlineStride + x];
+                    return (pixel >>> r & 0xff) << 16 | (pixel >>> g & 0xff) << 8 | (pixel >>> b & 0xff);
+                };
+            }
+            return image::getRGB;
+        }
+    }
+}
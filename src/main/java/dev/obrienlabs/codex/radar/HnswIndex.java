@@ -0,0 +1,411 @@
+package dev.obrienlabs.codex.radar;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+
+// Hierarchical navigable small world graph over cosine distance; vectors stay in the memory-mapped store.
+final class HnswIndex {
+    private static final int MAGIC = 0x484e5357;
+    private static final int VERSION = 2;
+    private static final int IO_CHUNK = 64 * 1024;
+
+    private final EmbeddingStore store;
+    private final int m;
+    private final int maxLayer0;
+    private final float[] norms;
+    private final byte[] levels;
+    private final int[] layer0;
+    private final Map<Integer, int[][]> upper;
+    private final float[] scratch;
+    private int[] visited;
+    private int visitStamp;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    private HnswIndex(EmbeddingStore store, int m, float[] norms, byte[] levels, int[] layer0,
+                      Map<Integer, int[][]> upper) {
+        this.store = store;
+        this.m = m;
+        this.maxLayer0 = 2 * m;
+        int size = levels.length;
+        this.levels = levels;
+        this.layer0 = layer0;
+        this.upper = upper;
+        this.norms = norms;
+        this.scratch = new float[store.dimension()];
+        this.visited = new int[size];
+    }
+
+    static Path pathFor(Path output) {
+        String fileName = output.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        return output.resolveSibling((dot == -1 ? fileName : fileName.substring(0, dot)) + ".hnsw");
+    }
+
+    // Layer 0 keeps a count and up to 2 * m neighbours per node in one flat array.
+    private static int[] layer0(int size, int m) {
+        long length = (long) size * (2L * m + 1);
+        if (length < 0 || length > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("An HNSW index of " + size + " rows with M " + m + " needs " + length
+                + " layer-0 slots, more than one array holds; lower --m or index fewer rows.");
+        }
+        return new int[(int) length];
+    }
+
+    static HnswIndex build(EmbeddingStore store, int m, int efConstruction, long seed) {
+        int size = Math.toIntExact(store.rowCount());
+        // Norms are computed once here and saved with the graph, so loading never rescans the store.
+        float[] norms = new float[size];
+        float[] row = new float[store.dimension()];
+        for (int node = 0; node < size; node++) {
+            store.read(node, row);
+            norms[node] = (float) Math.sqrt(dot(row, row));
+        }
+        HnswIndex index = new HnswIndex(store, m, norms, new byte[size], layer0(size, m), new HashMap<>());
+        SplittableRandom random = new SplittableRandom(seed);
+        double levelMultiplier = 1 / Math.log(m);
+        for (int node = 0; node < size; node++) {
+            double drawn = Math.floor(-Math.log(1 - random.nextDouble()) * levelMultiplier);
+            int level = (int) Math.min(Byte.MAX_VALUE, drawn);
+            index.insert(node, level, efConstruction);
+        }
+        return index;
+    }
+
+    int size() {
+        return levels.length;
+    }
+
+    List<Result> search(float[] query, int k, int ef) {
+        if (entryPoint < 0) {
+            return List.of();
+        }
+        float[] normalized = normalize(query);
+        int current = entryPoint;
+        float currentDistance = distance(normalized, current);
+        for (int level = maxLevel; level > 0; level--) {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (int neighbor : neighbors(current, level)) {
+                    float d = distance(normalized, neighbor);
+                    if (d < currentDistance) {
+                        currentDistance = d;
+                        current = neighbor;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        List<Result> candidates = searchLayer(normalized, current, Math.max(ef, k), 0);
+        return candidates.subList(0, Math.min(k, candidates.size()));
+    }
+
+    static List<Result> exactSearch(EmbeddingStore store, float[] query, int k) {
+        float[] normalized = normalize(query);
+        float[] row = new float[store.dimension()];
+        PriorityQueue<Result> best = new PriorityQueue<>((a, b) -> Float.compare(b.distance(), a.distance()));
+        for (long i = 0; i < store.rowCount(); i++) {
+            store.read(i, row);
+            float norm = (float) Math.sqrt(dot(row, row));
+            float distance = norm == 0 ? 1f : 1f - dot(normalized, row) / norm;
+            if (best.size() < k) {
+                best.add(new Result((int) i, distance));
+            } else if (distance < best.peek().distance()) {
+                best.poll();
+                best.add(new Result((int) i, distance));
+            }
+        }
+        List<Result> results = new ArrayList<>(best);
+        results.sort(null);
+        return results;
+    }
+
+    void save(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size());
+            out.writeInt(m);
+            out.writeInt(entryPoint);
+            out.writeInt(maxLevel);
+            out.write(levels);
+            ByteBuffer chunk = ByteBuffer.allocate(IO_CHUNK);
+            for (int done = 0; done < norms.length; ) {
+                int count = Math.min(norms.length - done, IO_CHUNK / Float.BYTES);
+                chunk.clear().asFloatBuffer().put(norms, done, count);
+                out.write(chunk.array(), 0, count * Float.BYTES);
+                done += count;
+            }
+            for (int done = 0; done < layer0.length; ) {
+                int count = Math.min(layer0.length - done, IO_CHUNK / Integer.BYTES);
+                chunk.clear().asIntBuffer().put(layer0, done, count);
+                out.write(chunk.array(), 0, count * Integer.BYTES);
+                done += count;
+            }
+            for (int node = 0; node < size(); node++) {
+                for (int level = 1; level <= levels[node]; level++) {
+                    int[] list = upper.get(node)[level - 1];
+                    for (int value : list) {
+                        out.writeInt(value);
+                    }
+                }
+            }
+        }
+    }
+
+    static HnswIndex load(Path path, EmbeddingStore store) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not an HNSW index of this version: " + path + "; rebuild it with index");
+            }
+            int size = in.readInt();
+            if (size != store.rowCount()) {
+                throw new IOException("Index " + path + " covers " + size + " rows but the store has "
+                    + store.rowCount());
+            }
+            int m = in.readInt();
+            int entryPoint = in.readInt();
+            int maxLevel = in.readInt();
+            byte[] levels = in.readNBytes(size);
+            float[] norms = new float[size];
+            int[] layer0 = layer0(size, m);
+            // Bulk reads in the big-endian order DataOutputStream wrote.
+            ByteBuffer chunk = ByteBuffer.allocate(IO_CHUNK);
+            for (int done = 0; done < norms.length; ) {
+                int count = Math.min(norms.length - done, IO_CHUNK / Float.BYTES);
+                in.readFully(chunk.array(), 0, count * Float.BYTES);
+                chunk.clear().asFloatBuffer().get(norms, done, count);
+                done += count;
+            }
+            for (int done = 0; done < layer0.length; ) {
+                int count = Math.min(layer0.length - done, IO_CHUNK / Integer.BYTES);
+                in.readFully(chunk.array(), 0, count * Integer.BYTES);
+                chunk.clear().asIntBuffer().get(layer0, done, count);
+                done += count;
+            }
+            Map<Integer, int[][]> upper = new HashMap<>();
+            for (int node = 0; node < size; node++) {
+                if (levels[node] > 0) {
+                    int[][] lists = new int[levels[node]][m + 1];
+                    for (int[] list : lists) {
+                        for (int i = 0; i < list.length; i++) {
+                            list[i] = in.readInt();
+                        }
+                    }
+                    upper.put(node, lists);
+                }
+            }
+            HnswIndex index = new HnswIndex(store, m, norms, levels, layer0, upper);
+            index.entryPoint = entryPoint;
+            index.maxLevel = maxLevel;
+            return index;
+        }
+    }
+
+    private void insert(int node, int level, int efConstruction) {
+        levels[node] = (byte) level;
+        if (level > 0) {
+            upper.put(node, new int[level][m + 1]);
+        }
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+        float[] query = normalize(vector(node));
+        int current = entryPoint;
+        float currentDistance = distance(query, current);
+        for (int l = maxLevel; l > level; l--) {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (int neighbor : neighbors(current, l)) {
+                    float d = distance(query, neighbor);
+                    if (d < currentDistance) {
+                        currentDistance = d;
+                        current = neighbor;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            List<Result> candidates = searchLayer(query, current, efConstruction, l);
+            int limit = l == 0 ? maxLayer0 : m;
+            List<Result> selected = selectNeighbors(candidates, m);
+            for (Result neighbor : selected) {
+                link(node, neighbor.row(), l, limit);
+                link(neighbor.row(), node, l, limit);
+            }
+            current = candidates.get(0).row();
+        }
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+    }
+
+    // Keeps candidates that are closer to the new node than to any already selected neighbour.
+    private List<Result> selectNeighbors(List<Result> candidates, int limit) {
+        List<Result> selected = new ArrayList<>(limit);
+        for (Result candidate : candidates) {
+            if (selected.size() >= limit) {
+                break;
+            }
+            float[] candidateVector = normalize(vector(candidate.row()));
+            boolean diverse = true;
+            for (Result chosen : selected) {
+                if (distance(candidateVector, chosen.row()) < candidate.distance()) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected.add(candidate);
+            }
+        }
+        for (Result candidate : candidates) {
+            if (selected.size() >= limit) {
+                break;
+            }
+            if (!selected.contains(candidate)) {
+                selected.add(candidate);
+            }
+        }
+        return selected;
+    }
+
+    private void link(int from, int to, int level, int limit) {
+        int[] list = level == 0 ? null : upper.get(from)[level - 1];
+        int base = level == 0 ? from * (maxLayer0 + 1) : 0;
+        int[] data = level == 0 ? layer0 : list;
+        int count = data[base];
+        for (int i = 1; i <= count; i++) {
+            if (data[base + i] == to) {
+                return;
+            }
+        }
+        if (count < limit) {
+            data[base + count + 1] = to;
+            data[base] = count + 1;
+            return;
+        }
+        float[] origin = normalize(vector(from));
+        List<Result> candidates = new ArrayList<>(count + 1);
+        candidates.add(new Result(to, distance(origin, to)));
+        for (int i = 1; i <= count; i++) {
+            candidates.add(new Result(data[base + i], distance(origin, data[base + i])));
+        }
+        candidates.sort(null);
+        List<Result> kept = selectNeighbors(candidates, limit);
+        data[base] = kept.size();
+        for (int i = 0; i < kept.size(); i++) {
+            data[base + i + 1] = kept.get(i).row();
+        }
+    }
+
+    private int[] neighbors(int node, int level) {
+        if (level == 0) {
+            int base = node * (maxLayer0 + 1);
+            return Arrays.copyOfRange(layer0, base + 1, base + 1 + layer0[base]);
+        }
+        int[] list = upper.get(node)[level - 1];
+        return Arrays.copyOfRange(list, 1, 1 + list[0]);
+    }
+
+    private List<Result> searchLayer(float[] query, int entry, int ef, int level) {
+        if (++visitStamp == Integer.MAX_VALUE) {
+            visited = new int[visited.length];
+            visitStamp = 1;
+        }
+        PriorityQueue<Result> candidates = new PriorityQueue<>();
+        PriorityQueue<Result> results = new PriorityQueue<>((a, b) -> Float.compare(b.distance(), a.distance()));
+        Result start = new Result(entry, distance(query, entry));
+        visited[entry] = visitStamp;
+        candidates.add(start);
+        results.add(start);
+        while (!candidates.isEmpty()) {
+            Result closest = candidates.poll();
+            if (closest.distance() > results.peek().distance() && results.size() >= ef) {
+                break;
+            }
+            for (int neighbor : neighbors(closest.row(), level)) {
+                if (visited[neighbor] == visitStamp) {
+                    continue;
+                }
+                visited[neighbor] = visitStamp;
+                float d = distance(query, neighbor);
+                if (results.size() < ef || d < results.peek().distance()) {
+                    Result result = new Result(neighbor, d);
+                    candidates.add(result);
+                    results.add(result);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+        List<Result> sorted = new ArrayList<>(results);
+        sorted.sort(null);
+        return sorted;
+    }
+
+    private float distance(float[] normalizedQuery, int node) {
+        float norm = norms[node];
+        return norm == 0 ? 1f : 1f - dot(normalizedQuery, vector(node)) / norm;
+    }
+
+    private float[] vector(int node) {
+        if (store.precision() == EmbeddingPrecision.F32) {
+            FloatBuffer row = store.row(node);
+            row.get(0, scratch);
+            return scratch;
+        }
+        return store.read(node, scratch);
+    }
+
+    private static float dot(float[] a, float[] b) {
+        float sum = 0f;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    private static float[] normalize(float[] vector) {
+        float norm = (float) Math.sqrt(dot(vector, vector));
+        float[] normalized = new float[vector.length];
+        if (norm > 0) {
+            for (int i = 0; i < vector.length; i++) {
+                normalized[i] = vector[i] / norm;
+            }
+        }
+        return normalized;
+    }
+
+    record Result(int row, float distance) implements Comparable<Result> {
+        @Override
+        public int compareTo(Result other) {
+            return Float.compare(distance, other.distance);
+        }
+
+        float similarity() {
+            return 1f - distance;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package dev.obrienlabs.codex.radar;
+
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.ImageFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+// Decodes frames with ImageIO source subsampling, keeping only every n-th row and column so the result
+// is no smaller than minSize on either axis. The reader skips pixel conversion for dropped pixels, and
+// palette PNGs and GIFs stay indexed so preprocessing can map them through a lookup table.
+final class ImageDecoder {
+    private ImageDecoder() {
+    }
+
+    // A query image decoded as radar-embed decodes frames: subsampled when minSize is positive, else in full.
+    static Image image(ImageFactory factory, byte[] content, int minSize) throws IOException {
+        if (minSize <= 0) {
+            return factory.fromInputStream(new ByteArrayInputStream(content));
+        }
+        BufferedImage image = decode(content, minSize);
+        if (image == null) {
+            throw new IOException("Unsupported image format");
+        }
+        return factory.fromImage(image);
+    }
+
+    // Returns null when no installed reader understands the content, like ImageIO.read.
+    static BufferedImage decode(byte[] content, int minSize) throws IOException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(content))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                int stepX = subsampling(reader.getWidth(0), minSize);
+                int stepY = subsampling(reader.getHeight(0), minSize);
+                if (stepX > 1 || stepY > 1) {
+                    param.setSourceSubsampling(stepX, stepY, 0, 0);
+                }
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    static int subsampling(int size, int minSize) {
+        return minSize <= 0 ? 1 : Math.max(1, size / minSize);
+    }
+}
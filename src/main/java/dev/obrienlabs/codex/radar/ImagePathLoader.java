@@ -1,37 +1,89 @@
 package dev.obrienlabs.codex.radar;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 final class ImagePathLoader {
-    private static final Set<String> SUPPORTED_EXTENSIONS = Set.of(".png", ".jpg", ".jpeg", ".tif", ".tiff");
+    private static final Set<String> SUPPORTED_EXTENSIONS = Set.of(".png", ".gif", ".jpg", ".jpeg", ".tif", ".tiff");
+    private static final int QUEUE_CAPACITY = 8192;
+    private static final int SCAN_PARALLELISM = 32;
+    private static final Path END = Path.of("");
+
+    enum Order {
+        NONE,
+        LEXICAL,
+        TIMESTAMP,
+        STATION
+    }
 
     private ImagePathLoader() {
     }
 
     static List<Path> load(Path root) throws IOException {
-        if (Files.isRegularFile(root)) {
-            return List.of(root);
-        }
         List<Path> paths = new ArrayList<>();
-        try (Stream<Path> stream = Files.walk(root)) {
-            paths = stream
-                .filter(Files::isRegularFile)
-                .filter(ImagePathLoader::hasSupportedExtension)
-                .sorted()
-                .collect(Collectors.toList());
+        try (Scan scan = scan(root, Order.LEXICAL)) {
+            scan.forEachRemaining(paths::add);
         }
         return paths;
     }
 
-    private static boolean hasSupportedExtension(Path path) {
-        String name = path.getFileName().toString().toLowerCase();
+    static Scan scan(Path root, Order order) throws IOException {
+        return scan(root, order, path -> true);
+    }
+
+    // Only accepted paths are emitted; filtering happens before sorting, so each worker sorts only its share.
+    static Scan scan(Path root, Order order, Predicate<Path> filter) throws IOException {
+        if (Files.isRegularFile(root)) {
+            return new Scan(filter.test(root) ? List.of(root).iterator() : Collections.emptyIterator(), null);
+        }
+        DirectoryScanner scanner = new DirectoryScanner(root);
+        Iterator<Path> accepted = new FilteringIterator(scanner, filter);
+        return switch (order) {
+            case NONE -> new Scan(accepted, scanner);
+            case LEXICAL -> sorted(accepted, scanner, path -> "");
+            case TIMESTAMP -> sorted(accepted, scanner, path -> String.format(Locale.ROOT, "%019d",
+                RadarFileName.parse(path).timestamp()));
+            case STATION -> sorted(accepted, scanner, path -> {
+                RadarFileName name = RadarFileName.parse(path);
+                return String.format(Locale.ROOT, "%s/%019d", name.station(), name.timestamp());
+            });
+        };
+    }
+
+    private static Scan sorted(Iterator<Path> paths, DirectoryScanner scanner, Function<Path, String> key)
+        throws IOException {
+        try {
+            ExternalPathSorter sorter = ExternalPathSorter.sort(paths, key, ExternalPathSorter.DEFAULT_RUN_SIZE);
+            return new Scan(sorter, sorter);
+        } finally {
+            scanner.close();
+        }
+    }
+
+    static boolean hasSupportedExtension(Path path) {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
         for (String ext : SUPPORTED_EXTENSIONS) {
             if (name.endsWith(ext)) {
                 return true;
@@ -39,4 +91,157 @@ final class ImagePathLoader {
         }
         return false;
     }
+
+    static final class Scan implements Iterator<Path>, AutoCloseable {
+        private final Iterator<Path> paths;
+        private final Closeable resource;
+
+        private Scan(Iterator<Path> paths, Closeable resource) {
+            this.paths = paths;
+            this.resource = resource;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return paths.hasNext();
+        }
+
+        @Override
+        public Path next() {
+            return paths.next();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (resource != null) {
+                resource.close();
+            }
+        }
+    }
+
+    private static final class FilteringIterator implements Iterator<Path> {
+        private final Iterator<Path> paths;
+        private final Predicate<Path> filter;
+        private Path next;
+
+        FilteringIterator(Iterator<Path> paths, Predicate<Path> filter) {
+            this.paths = paths;
+            this.filter = filter;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && paths.hasNext()) {
+                Path candidate = paths.next();
+                if (filter.test(candidate)) {
+                    next = candidate;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Path next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Path result = next;
+            next = null;
+            return result;
+        }
+    }
+
+    // Walks directories concurrently on virtual threads and emits matching files as they are found,
+    // reading each entry's attributes once.
+    private static final class DirectoryScanner implements Iterator<Path>, Closeable {
+        private final BlockingQueue<Path> found = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        private final Semaphore permits = new Semaphore(SCAN_PARALLELISM);
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicReference<IOException> failure = new AtomicReference<>();
+        private Path next;
+        private boolean done;
+
+        DirectoryScanner(Path root) {
+            submit(root);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !done) {
+                try {
+                    Path path = found.take();
+                    if (path == END) {
+                        done = true;
+                    } else {
+                        next = path;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while scanning for images.", e);
+                }
+            }
+            IOException error = failure.get();
+            if (error != null) {
+                throw new UncheckedIOException(error);
+            }
+            return next != null;
+        }
+
+        @Override
+        public Path next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Path path = next;
+            next = null;
+            return path;
+        }
+
+        @Override
+        public void close() {
+            executor.shutdownNow();
+        }
+
+        private void submit(Path directory) {
+            pending.incrementAndGet();
+            executor.execute(() -> {
+                try {
+                    permits.acquire();
+                    try {
+                        scanDirectory(directory);
+                    } finally {
+                        permits.release();
+                    }
+                } catch (IOException e) {
+                    failure.compareAndSet(null, e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (pending.decrementAndGet() == 0) {
+                    try {
+                        found.put(END);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+
+        private void scanDirectory(Path directory) throws IOException, InterruptedException {
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class,
+                        LinkOption.NOFOLLOW_LINKS);
+                    if (attributes.isDirectory()) {
+                        submit(entry);
+                    } else if (hasSupportedExtension(entry)
+                        && (attributes.isRegularFile() || attributes.isSymbolicLink() && Files.isRegularFile(entry))) {
+                        found.put(entry);
+                    }
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,113 @@
+package dev.obrienlabs.codex.radar;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Model.CommandSpec;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.ParameterException;
+import picocli.CommandLine.Parameters;
+import picocli.CommandLine.Spec;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+
+@Command(name = "index", mixinStandardHelpOptions = true,
+    description = "Build an approximate nearest-neighbour (HNSW) index over an embedding matrix.")
+final class IndexCommand implements Callable<Integer> {
+
+    @Spec
+    private CommandSpec spec;
+
+    @Parameters(index = "0", description = "Embedding .npy file written by radar-embed.")
+    private Path embeddings;
+
+    @Option(names = "--m", description = "Graph links per node (default: ${DEFAULT-VALUE}).", defaultValue = "16")
+    private int m;
+
+    @Option(names = "--ef-construction", description = "Candidate list size while building "
+        + "(default: ${DEFAULT-VALUE}).", defaultValue = "100")
+    private int efConstruction;
+
+    @Option(names = "--ef-search", description = "Candidate list size for the recall check "
+        + "(default: ${DEFAULT-VALUE}).", defaultValue = "64")
+    private int efSearch;
+
+    @Option(names = "--recall-queries", description = "Stored rows sampled to measure recall (0 = skip).",
+        defaultValue = "100")
+    private int recallQueries;
+
+    @Option(names = "--k", description = "Neighbours compared in the recall check.", defaultValue = "10")
+    private int k;
+
+    @Override
+    public Integer call() throws Exception {
+        if (m < 2) {
+            throw new ParameterException(spec.commandLine(), "--m must be at least 2: " + m);
+        }
+        if (efConstruction < 1 || efSearch < 1 || k < 1) {
+            throw new ParameterException(spec.commandLine(), "--ef-construction, --ef-search and --k must be "
+                + "positive: " + efConstruction + ", " + efSearch + ", " + k);
+        }
+        if (recallQueries < 0) {
+            throw new ParameterException(spec.commandLine(), "--recall-queries must not be negative: "
+                + recallQueries);
+        }
+        if (!Files.exists(embeddings)) {
+            throw new IllegalArgumentException("Embeddings not found: " + embeddings);
+        }
+        EmbeddingStore store = EmbeddingStore.open(embeddings);
+        long start = System.nanoTime();
+        HnswIndex index = HnswIndex.build(store, m, efConstruction, 42L);
+        Path indexPath = HnswIndex.pathFor(embeddings);
+        index.save(indexPath);
+        System.out.printf(Locale.ROOT, "Indexed %d embeddings in %.1f s to %s%n", index.size(),
+            (System.nanoTime() - start) / 1e9, indexPath);
+        if (recallQueries > 0 && index.size() > 0) {
+            printRecall(store, index);
+        }
+        return 0;
+    }
+
+    private void printRecall(EmbeddingStore store, HnswIndex index) {
+        SplittableRandom random = new SplittableRandom(7L);
+        float[] query = new float[store.dimension()];
+        long approximateNanos = 0;
+        long exactNanos = 0;
+        int found = 0;
+        int expected = 0;
+        for (int q = 0; q < recallQueries; q++) {
+            store.read(random.nextInt(index.size()), query);
+            long start = System.nanoTime();
+            List<HnswIndex.Result> approximate = index.search(query, k, efSearch);
+            approximateNanos += System.nanoTime() - start;
+            start = System.nanoTime();
+            List<HnswIndex.Result> exact = HnswIndex.exactSearch(store, query, k);
+            exactNanos += System.nanoTime() - start;
+            found += overlap(approximate, exact);
+            expected += exact.size();
+        }
+        System.out.printf(Locale.ROOT,
+            "Recall@%d over %d queries: %.4f (ef-search=%d, %.3f ms/query vs %.3f ms/query exact)%n",
+            k, recallQueries, (double) found / expected, efSearch,
+            approximateNanos / 1e6 / recallQueries, exactNanos / 1e6 / recallQueries);
+    }
+
+    static int overlap(List<HnswIndex.Result> approximate, List<HnswIndex.Result> exact) {
+        Set<Integer> rows = new HashSet<>();
+        for (HnswIndex.Result result : exact) {
+            rows.add(result.row());
+        }
+        int count = 0;
+        for (HnswIndex.Result result : approximate) {
+            if (rows.contains(result.row())) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
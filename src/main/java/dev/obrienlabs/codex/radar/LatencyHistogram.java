@@ -0,0 +1,86 @@
+package dev.obrienlabs.codex.radar;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Log-linear buckets in microseconds: 16 sub-buckets per power of two keeps percentiles within ~6%.
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    void recordNanos(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(bucket(micros));
+        count.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        maxMicros.accumulateAndGet(micros, Math::max);
+    }
+
+    // Not atomic with concurrent recording; only used before measurement starts.
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        totalMicros.set(0);
+        maxMicros.set(0);
+    }
+
+    long count() {
+        return count.get();
+    }
+
+    double meanMillis() {
+        long n = count.get();
+        return n == 0 ? 0.0 : totalMicros.get() / 1000.0 / n;
+    }
+
+    double maxMillis() {
+        return maxMicros.get() / 1000.0;
+    }
+
+    double percentileMillis(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0.0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), maxMicros.get()) / 1000.0;
+            }
+        }
+        return maxMillis();
+    }
+
+    String summary() {
+        return String.format(Locale.ROOT, "n=%d mean=%.2fms p50=%.2fms p99=%.2fms max=%.2fms",
+            count(), meanMillis(), percentileMillis(50), percentileMillis(99), maxMillis());
+    }
+
+    private static int bucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (micros >>> shift) - SUB_BUCKETS;
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,86 @@
+package dev.obrienlabs.codex.radar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+final class MappedFile {
+    // Chunks overlap by the largest slice a caller asks for, so every slice lies within a single mapping.
+    private static final long CHUNK_SIZE = 1L << 30;
+
+    private final MappedByteBuffer[] chunks;
+    private final long size;
+
+    private MappedFile(MappedByteBuffer[] chunks, long size) {
+        this.chunks = chunks;
+        this.size = size;
+    }
+
+    static MappedFile map(Path path, int maxSliceLength) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return map(channel, FileChannel.MapMode.READ_ONLY, channel.size(), maxSliceLength);
+        }
+    }
+
+    static MappedFile create(Path path, long size, int maxSliceLength) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return map(channel, FileChannel.MapMode.READ_WRITE, size, maxSliceLength);
+        }
+    }
+
+    private static MappedFile map(FileChannel channel, FileChannel.MapMode mode, long size, int maxSliceLength)
+        throws IOException {
+        if (maxSliceLength < 0 || maxSliceLength > Integer.MAX_VALUE - CHUNK_SIZE) {
+            throw new IllegalArgumentException("Slice length out of range: " + maxSliceLength);
+        }
+        int chunkCount = (int) Math.max(1, (size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        MappedByteBuffer[] chunks = new MappedByteBuffer[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            long start = i * CHUNK_SIZE;
+            long length = Math.min(size - start, CHUNK_SIZE + maxSliceLength);
+            chunks[i] = channel.map(mode, start, Math.max(0, length));
+            chunks[i].order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return new MappedFile(chunks, size);
+    }
+
+    long size() {
+        return size;
+    }
+
+    ByteBuffer slice(long position, int length) {
+        if (position < 0 || position + length > size) {
+            throw new IndexOutOfBoundsException("Slice [" + position + ", " + (position + length)
+                + ") outside file of size " + size);
+        }
+        MappedByteBuffer chunk = chunks[(int) (position / CHUNK_SIZE)];
+        return chunk.slice((int) (position % CHUNK_SIZE), length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    long getLong(long position) {
+        return slice(position, Long.BYTES).getLong(0);
+    }
+
+    int getInt(long position) {
+        return slice(position, Integer.BYTES).getInt(0);
+    }
+
+    void putLong(long position, long value) {
+        slice(position, Long.BYTES).putLong(0, value);
+    }
+
+    void put(long position, byte[] bytes) {
+        slice(position, bytes.length).put(0, bytes);
+    }
+
+    void force() {
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package dev.obrienlabs.codex.radar;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+
+@Command(name = "merge", mixinStandardHelpOptions = true,
+    description = "Concatenate the outputs of --shard workers into one embedding output.")
+final class MergeCommand implements Callable<Integer> {
+    private static final int OFFSET_CHUNK = 64 * 1024;
+
+    @Parameters(arity = "1..*", description = "Embedding .npy files written by the workers, in row order.")
+    private List<Path> parts;
+
+    @Option(names = "--output", description = "Merged .npy file; metadata, path index and projection are "
+        + "written beside it.", required = true)
+    private Path output;
+
+    @Override
+    public Integer call() throws Exception {
+        List<String> backbones = backbones(parts.get(0));
+        for (String name : backbones) {
+            for (Path part : parts) {
+                if (!Files.exists(BackboneSpec.outputFor(part, name))) {
+                    throw new IllegalArgumentException(parts.get(0) + " has a " + name + " backbone output but "
+                        + part + " does not; were the workers given the same --backbone?");
+                }
+            }
+        }
+        merge(parts, output);
+        for (String name : backbones) {
+            merge(parts.stream().map(part -> BackboneSpec.outputFor(part, name)).toList(),
+                BackboneSpec.outputFor(output, name));
+        }
+        return 0;
+    }
+
+    // The <base>.NAME.npy outputs --backbone wrote beside a part, found by their metadata.
+    private static List<String> backbones(Path part) throws IOException {
+        String fileName = part.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        String prefix = (dot == -1 ? fileName : fileName.substring(0, dot)) + ".";
+        Path directory = part.toAbsolutePath().getParent();
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> siblings = Files.newDirectoryStream(directory, sibling -> {
+            String name = sibling.getFileName().toString();
+            return name.length() > prefix.length() + ".npy".length() && name.startsWith(prefix)
+                && name.endsWith(".npy");
+        })) {
+            for (Path sibling : siblings) {
+                String siblingName = sibling.getFileName().toString();
+                String name = siblingName.substring(prefix.length(), siblingName.length() - ".npy".length());
+                if (BackboneSpec.isName(name) && Files.exists(MetadataWriter.metadataPath(sibling))) {
+                    names.add(name);
+                }
+            }
+        }
+        names.sort(null);
+        return names;
+    }
+
+    private static void merge(List<Path> partPaths, Path destination) throws IOException {
+        List<Part> inputs = new ArrayList<>(partPaths.size());
+        for (Path part : partPaths) {
+            if (Files.exists(destination) && Files.isSameFile(part, destination)) {
+                throw new IllegalArgumentException("Output " + destination + " is also an input.");
+            }
+            inputs.add(Part.open(part));
+        }
+        Part first = inputs.get(0);
+        for (Part part : inputs) {
+            if (!part.npy().descr().equals(first.npy().descr()) || part.dimension() != first.dimension()) {
+                throw new IllegalArgumentException(part.path() + " (" + part.npy().descr() + ", " + part.dimension()
+                    + " dimensions) does not match " + first.path() + " (" + first.npy().descr() + ", "
+                    + first.dimension() + " dimensions).");
+            }
+        }
+        Path projection = checkProjections(inputs);
+
+        long start = System.nanoTime();
+        Path parent = destination.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path index = mergePaths(inputs, destination);
+        long rows = 0;
+        for (Part part : inputs) {
+            rows += part.rows();
+        }
+        EmbeddingPrecision precision = EmbeddingPrecision.fromDescr(first.npy().descr());
+        try (FileChannel target = create(destination)) {
+            NpyWriter.writeHeader(target, first.npy().descr(), rows, first.dimension());
+            target.position(NpyWriter.HEADER_SIZE);
+            for (Part part : inputs) {
+                transfer(part.path(), part.npy().dataOffset(), part.rows() * part.dimension() * precision.bytes(),
+                    target);
+            }
+        }
+        if (precision == EmbeddingPrecision.INT8) {
+            try (FileChannel target = create(NpyWriter.scalesPath(destination))) {
+                NpyWriter.writeHeader(target, EmbeddingPrecision.F32.descr(), rows);
+                target.position(NpyWriter.HEADER_SIZE);
+                for (Part part : inputs) {
+                    Path scales = NpyWriter.scalesPath(part.path());
+                    transfer(scales, EmbeddingStore.NpyHeader.read(scales).dataOffset(), part.rows() * Float.BYTES,
+                        target);
+                }
+            }
+        }
+        mergeMetadata(inputs, destination);
+        Files.deleteIfExists(PathIndex.logPath(PathIndex.pathFor(destination)));
+        Files.move(index, PathIndex.pathFor(destination), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        if (projection != null) {
+            Files.copy(projection, Projection.pathFor(destination), StandardCopyOption.REPLACE_EXISTING);
+        }
+        System.out.printf(Locale.ROOT, "Merged %d rows from %d parts into %s in %.2f s%n", rows, inputs.size(),
+            destination, (System.nanoTime() - start) / 1e9);
+    }
+
+    // Parts reduced with --projection must all share it, or their rows live in different spaces.
+    private static Path checkProjections(List<Part> inputs) throws IOException {
+        Path reference = null;
+        String referenceHash = null;
+        for (Part part : inputs) {
+            Path projection = Projection.pathFor(part.path());
+            boolean exists = Files.exists(projection);
+            if (part == inputs.get(0)) {
+                reference = exists ? projection : null;
+                referenceHash = exists ? ShardManifest.sha256(projection) : null;
+            } else if (exists != (reference != null)
+                || exists && !ShardManifest.sha256(projection).equals(referenceHash)) {
+                throw new IllegalArgumentException(part.path() + " and " + inputs.get(0).path()
+                    + " were not reduced with the same projection.");
+            }
+        }
+        return reference;
+    }
+
+    // Overlapping shards would leave one frame in two rows, so every path may come from one part only. The
+    // parts' paths stream into a staging index for the output, where a path's lookup returns its first row;
+    // a row whose path resolves to an earlier part repeats that part's frame. Tiles of one frame share a part.
+    private static Path mergePaths(List<Part> inputs, Path destination) throws IOException {
+        long rows = 0;
+        for (Part part : inputs) {
+            rows += part.rows();
+        }
+        Path indexPath = PathIndex.pathFor(destination);
+        Path staging = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        PathIndex.write(staging, rows, () -> new Iterator<>() {
+            private int part;
+            private long row;
+
+            @Override
+            public boolean hasNext() {
+                while (part < inputs.size() && row == inputs.get(part).rows()) {
+                    part++;
+                    row = 0;
+                }
+                return part < inputs.size();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return inputs.get(part).index().path(row++);
+            }
+        });
+        PathIndex merged = PathIndex.open(staging);
+        long row = 0;
+        for (Part part : inputs) {
+            long partStart = row;
+            for (long end = row + part.rows(); row < end; row++) {
+                String path = merged.path(row);
+                long first = merged.rowOf(path).orElseThrow();
+                if (first < partStart) {
+                    Files.delete(staging);
+                    throw new IllegalArgumentException(path + " appears in both " + owner(inputs, first).path()
+                        + " and " + part.path() + "; were the workers given the same --shard?");
+                }
+            }
+        }
+        return staging;
+    }
+
+    private static Part owner(List<Part> inputs, long row) {
+        for (Part part : inputs) {
+            if (row < part.rows()) {
+                return part;
+            }
+            row -= part.rows();
+        }
+        throw new IndexOutOfBoundsException("Row " + row + " past the merged parts");
+    }
+
+    // Records are copied verbatim; only the offset table is rewritten, shifting each part's offsets by the
+    // record bytes of the parts before it.
+    private static void mergeMetadata(List<Part> inputs, Path destination) throws IOException {
+        long rows = 0;
+        long dataEnd = MetadataWriter.HEADER_SIZE;
+        int maxRecordLength = 0;
+        ByteBuffer chunk = ByteBuffer.allocateDirect(OFFSET_CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel records = create(MetadataWriter.metadataPath(destination));
+             FileChannel offsets = create(MetadataWriter.offsetsPath(destination))) {
+            records.position(MetadataWriter.HEADER_SIZE);
+            MetadataWriter.writeOffsetsHeader(offsets);
+            offsets.position(MetadataWriter.OFFSETS_HEADER_SIZE);
+            for (Part part : inputs) {
+                MetadataWriter.Header header = part.metadata();
+                long shift = dataEnd - MetadataWriter.HEADER_SIZE;
+                transfer(MetadataWriter.metadataPath(part.path()), MetadataWriter.HEADER_SIZE,
+                    header.dataEnd() - MetadataWriter.HEADER_SIZE, records);
+                try (FileChannel source = FileChannel.open(MetadataWriter.offsetsPath(part.path()),
+                    StandardOpenOption.READ)) {
+                    long position = MetadataWriter.OFFSETS_HEADER_SIZE;
+                    long end = position + header.rowCount() * Long.BYTES;
+                    while (position < end) {
+                        chunk.clear().limit((int) Math.min(chunk.capacity(), end - position));
+                        while (chunk.hasRemaining()) {
+                            int read = source.read(chunk, position + chunk.position());
+                            if (read < 0) {
+                                throw new IOException("Offset table of " + part.path() + " is truncated.");
+                            }
+                        }
+                        chunk.flip();
+                        for (int i = 0; i < chunk.limit(); i += Long.BYTES) {
+                            chunk.putLong(i, chunk.getLong(i) + shift);
+                        }
+                        position += chunk.limit();
+                        while (chunk.hasRemaining()) {
+                            offsets.write(chunk);
+                        }
+                    }
+                }
+                rows += header.rowCount();
+                dataEnd += header.dataEnd() - MetadataWriter.HEADER_SIZE;
+                maxRecordLength = Math.max(maxRecordLength, header.maxRecordLength());
+            }
+            // The header goes last, so an interrupted merge never claims rows it did not copy.
+            new MetadataWriter.Header(rows, dataEnd, maxRecordLength).write(records);
+        }
+    }
+
+    private static FileChannel create(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE);
+    }
+
+    // Copies a byte range between files inside the kernel where the platform allows, never through the heap.
+    private static void transfer(Path source, long position, long count, FileChannel target) throws IOException {
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            if (channel.size() < position + count) {
+                throw new IOException(source + " is shorter than its header declares.");
+            }
+            long done = 0;
+            while (done < count) {
+                done += channel.transferTo(position + done, count - done, target);
+            }
+        }
+    }
+
+    private record Part(Path path, EmbeddingStore.NpyHeader npy, MetadataWriter.Header metadata, PathIndex index) {
+        static Part open(Path path) throws IOException {
+            EmbeddingStore.NpyHeader npy = EmbeddingStore.NpyHeader.read(path);
+            if (npy.shape().length != 2) {
+                throw new IllegalArgumentException("Expected a 2-D embedding matrix in " + path);
+            }
+            Path metadataPath = MetadataWriter.metadataPath(path);
+            if (!Files.exists(metadataPath)) {
+                throw new IllegalArgumentException("Metadata not found: " + metadataPath);
+            }
+            MetadataWriter.Header metadata = MetadataWriter.Header.read(metadataPath);
+            if (metadata.rowCount() != npy.shape()[0]) {
+                throw new IllegalArgumentException(path + " holds " + npy.shape()[0] + " rows but its metadata "
+                    + metadata.rowCount() + "; was the worker interrupted?");
+            }
+            Path indexPath = PathIndex.pathFor(path);
+            if (!Files.exists(indexPath)) {
+                throw new IllegalArgumentException("Path index not found: " + indexPath);
+            }
+            PathIndex index = PathIndex.open(indexPath);
+            if (index.rowCount() != npy.shape()[0]) {
+                throw new IllegalArgumentException(path + " holds " + npy.shape()[0] + " rows but its path index "
+                    + index.rowCount() + "; was the worker interrupted?");
+            }
+            return new Part(path, npy, metadata, index);
+        }
+
+        long rows() {
+            return npy.shape()[0];
+        }
+
+        int dimension() {
+            return Math.toIntExact(npy.shape()[1]);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package dev.obrienlabs.codex.radar;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+
+@Command(name = "metadata", mixinStandardHelpOptions = true,
+    description = "Export the per-frame metadata of an embedding output as JSON Lines.")
+final class MetadataCommand implements Callable<Integer> {
+
+    @Parameters(index = "0", description = "Embedding .npy file written by radar-embed.")
+    private Path embeddings;
+
+    @Option(names = "--output", description = "JSON Lines file to write (default: standard output).")
+    private Path output;
+
+    @Override
+    public Integer call() throws Exception {
+        if (!Files.exists(MetadataWriter.metadataPath(embeddings))) {
+            throw new IllegalArgumentException("Metadata not found: " + MetadataWriter.metadataPath(embeddings));
+        }
+        FrameMetadata metadata = FrameMetadata.open(embeddings);
+        if (output == null) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+            metadata.exportJsonl(writer);
+            writer.flush();
+            return 0;
+        }
+        Path parent = output.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            metadata.exportJsonl(writer);
+        }
+        System.out.printf(Locale.ROOT, "Exported %d rows to %s%n", metadata.rowCount(), output);
+        return 0;
+    }
+}
@@ -1,34 +1,106 @@
 package dev.obrienlabs.codex.radar;
 
 import java.io.IOException;
-import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.List;
+import java.nio.file.StandardOpenOption;
 
-final class MetadataWriter {
-    private MetadataWriter() {
+// Streams per-frame metadata next to the embeddings. <base>.meta holds one variable-length record per
+// row; <base>.offsets holds each record's start as a little-endian long, so any row is one lookup away.
+final class MetadataWriter implements AutoCloseable {
+    static final int MAGIC = 0x4154454d;
+    static final int OFFSETS_MAGIC = 0x5346464f;
+    static final int VERSION = 1;
+    // Magic, version, row count, data end, longest record; patched in place like the NPY header.
+    static final int HEADER_SIZE = 32;
+    static final int OFFSETS_HEADER_SIZE = 8;
+    // Timestamp, size and mtime, the content hash, the tile rectangle, then the station and path lengths.
+    static final int FIXED_RECORD_SIZE = 3 * Long.BYTES + FileFingerprint.HASH_BYTES + 4 * Integer.BYTES
+        + 2 * Short.BYTES;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_FIELD_LENGTH = 0xffff;
+
+    private final FileChannel records;
+    private final FileChannel offsets;
+    private final ByteBuffer recordBuffer;
+    private final ByteBuffer offsetBuffer;
+    private long rowCount;
+    private long dataEnd;
+    private int maxRecordLength;
+
+    private MetadataWriter(FileChannel records, FileChannel offsets, long rowCount, long dataEnd,
+                           int maxRecordLength) {
+        this.records = records;
+        this.offsets = offsets;
+        this.recordBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        this.offsetBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        this.rowCount = rowCount;
+        this.dataEnd = dataEnd;
+        this.maxRecordLength = maxRecordLength;
     }
 
-    static void writePaths(Path output, List<String> paths) throws IOException {
-        Path metadataPath = replaceExtension(output, ".json");
+    static MetadataWriter open(Path output) throws IOException {
+        Path metadataPath = metadataPath(output);
         Path parent = metadataPath.toAbsolutePath().getParent();
         if (parent != null) {
             Files.createDirectories(parent);
         }
-        try (Writer writer = Files.newBufferedWriter(metadataPath, StandardCharsets.UTF_8)) {
-            writer.write("{\"paths\":[");
-            for (int i = 0; i < paths.size(); i++) {
-                if (i > 0) {
-                    writer.write(',');
-                }
-                writer.write('"');
-                writer.write(escape(paths.get(i)));
-                writer.write('"');
+        FileChannel records = FileChannel.open(metadataPath, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        FileChannel offsets = FileChannel.open(offsetsPath(output), StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        MetadataWriter writer = new MetadataWriter(records, offsets, 0, HEADER_SIZE, 0);
+        writer.writeHeader();
+        writeOffsetsHeader(offsets);
+        records.position(HEADER_SIZE);
+        offsets.position(OFFSETS_HEADER_SIZE);
+        return writer;
+    }
+
+    // Reopens existing metadata for appending, dropping anything past the first keepRows rows.
+    static MetadataWriter append(Path output, long keepRows) throws IOException {
+        Path metadataPath = metadataPath(output);
+        if (!Files.exists(metadataPath)) {
+            if (keepRows > 0) {
+                throw new IOException("Cannot append to " + output + ": metadata " + metadataPath
+                    + " is missing (outputs from older versions must be re-embedded).");
             }
-            writer.write("]}");
+            return open(output);
+        }
+        Header header = Header.read(metadataPath);
+        if (header.rowCount() < keepRows) {
+            throw new IOException("Cannot append to " + output + ": metadata holds " + header.rowCount()
+                + " rows but the path index lists " + keepRows + ".");
+        }
+        FileChannel records = FileChannel.open(metadataPath, StandardOpenOption.WRITE);
+        FileChannel offsets = FileChannel.open(offsetsPath(output), StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        long end = header.dataEnd();
+        if (keepRows < header.rowCount()) {
+            ByteBuffer offset = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            offsets.read(offset, OFFSETS_HEADER_SIZE + keepRows * Long.BYTES);
+            end = offset.getLong(0);
         }
+        records.truncate(end);
+        records.position(end);
+        long offsetsEnd = OFFSETS_HEADER_SIZE + keepRows * Long.BYTES;
+        offsets.truncate(offsetsEnd);
+        offsets.position(offsetsEnd);
+        MetadataWriter writer = new MetadataWriter(records, offsets, keepRows, end, header.maxRecordLength());
+        writer.writeHeader();
+        return writer;
+    }
+
+    static Path metadataPath(Path output) {
+        return replaceExtension(output, ".meta");
+    }
+
+    static Path offsetsPath(Path output) {
+        return replaceExtension(output, ".offsets");
     }
 
     private static Path replaceExtension(Path path, String extension) {
@@ -38,7 +110,120 @@ final class MetadataWriter {
         return path.resolveSibling(base + extension);
     }
 
-    private static String escape(String value) {
-        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    void write(Path path, FileFingerprint fingerprint) throws IOException {
+        write(path, fingerprint, TileGrid.WHOLE_FRAME);
+    }
+
+    void write(Path path, FileFingerprint fingerprint, TileGrid.Tile tile) throws IOException {
+        RadarFileName name = RadarFileName.parse(path);
+        byte[] pathBytes = field(path.toString());
+        byte[] stationBytes = field(name.station());
+        int length = FIXED_RECORD_SIZE + stationBytes.length + pathBytes.length;
+        if (recordBuffer.remaining() < length) {
+            flushBuffer(recordBuffer, records);
+        }
+        if (offsetBuffer.remaining() < Long.BYTES) {
+            flushBuffer(offsetBuffer, offsets);
+        }
+        offsetBuffer.putLong(dataEnd);
+
+        ByteBuffer target = recordBuffer.remaining() >= length ? recordBuffer
+            : ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        target.putLong(name.timestamp()).putLong(fingerprint.size()).putLong(fingerprint.modifiedMillis());
+        byte[] hash = fingerprint.contentHash();
+        target.put(hash == null ? new byte[FileFingerprint.HASH_BYTES] : hash);
+        target.putInt(tile.x()).putInt(tile.y()).putInt(tile.width()).putInt(tile.height());
+        target.putShort((short) stationBytes.length).putShort((short) pathBytes.length);
+        target.put(stationBytes).put(pathBytes);
+        if (target != recordBuffer) {
+            target.flip();
+            while (target.hasRemaining()) {
+                records.write(target);
+            }
+        }
+        dataEnd += length;
+        maxRecordLength = Math.max(maxRecordLength, length);
+        rowCount++;
+    }
+
+    private static byte[] field(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_FIELD_LENGTH) {
+            throw new IllegalArgumentException("Metadata field longer than " + MAX_FIELD_LENGTH + " bytes: " + value);
+        }
+        return bytes;
+    }
+
+    long rowCount() {
+        return rowCount;
+    }
+
+    // Records and offsets reach the disk before the header counts them, so readers never see a torn row.
+    void flush() throws IOException {
+        flushBuffer(recordBuffer, records);
+        flushBuffer(offsetBuffer, offsets);
+        writeHeader();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            try {
+                records.close();
+            } finally {
+                offsets.close();
+            }
+        }
+    }
+
+    private static void flushBuffer(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void writeHeader() throws IOException {
+        new Header(rowCount, dataEnd, maxRecordLength).write(records);
+    }
+
+    static void writeOffsetsHeader(FileChannel offsets) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(OFFSETS_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(OFFSETS_MAGIC).putInt(VERSION);
+        writeAt(offsets, header.flip());
+    }
+
+    private static void writeAt(FileChannel channel, ByteBuffer buffer) throws IOException {
+        long position = 0;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n").replace("\r", "\\r")
+            .replace("\t", "\\t");
+    }
+
+    record Header(long rowCount, long dataEnd, int maxRecordLength) {
+        static Header read(Path metadataPath) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            try (FileChannel channel = FileChannel.open(metadataPath, StandardOpenOption.READ)) {
+                channel.read(header, 0);
+            }
+            if (header.position() < HEADER_SIZE || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException("Not a radar-embed metadata file: " + metadataPath);
+            }
+            return new Header(header.getLong(8), header.getLong(16), header.getInt(24));
+        }
+
+        void write(FileChannel records) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putLong(rowCount).putLong(dataEnd).putInt(maxRecordLength);
+            writeAt(records, header.clear());
+        }
     }
 }
@@ -0,0 +1,125 @@
+package dev.obrienlabs.codex.radar;
+
+import ai.djl.modality.cv.Image;
+import ai.djl.translate.TranslateException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Coalesces concurrent single-image requests into embedBatch calls, one dispatcher per predictor.
+final class MicroBatcher implements AutoCloseable {
+    private final EmbeddingService service;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final List<Thread> dispatchers = new ArrayList<>();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong images = new AtomicLong();
+    private volatile boolean closed;
+
+    MicroBatcher(EmbeddingService service, int maxBatchSize, long maxWaitMillis) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Max batch size must be positive: " + maxBatchSize);
+        }
+        if (maxWaitMillis < 0) {
+            throw new IllegalArgumentException("Max wait must not be negative: " + maxWaitMillis);
+        }
+        this.service = service;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        for (int i = 0; i < service.predictorCount(); i++) {
+            dispatchers.add(Thread.ofPlatform().name("embed-batcher-" + i).daemon().start(this::dispatch));
+        }
+    }
+
+    CompletableFuture<float[]> submit(Image image) {
+        CompletableFuture<float[]> result = new CompletableFuture<>();
+        if (closed) {
+            result.completeExceptionally(new IllegalStateException("Embedding server is shutting down."));
+        } else {
+            queue.add(new Request(image, result));
+        }
+        return result;
+    }
+
+    long batches() {
+        return batches.get();
+    }
+
+    double meanBatchSize() {
+        long count = batches.get();
+        return count == 0 ? 0.0 : (double) images.get() / count;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Thread dispatcher : dispatchers) {
+            dispatcher.interrupt();
+        }
+        try {
+            for (Thread dispatcher : dispatchers) {
+                dispatcher.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<Request> abandoned = new ArrayList<>();
+        queue.drainTo(abandoned);
+        for (Request request : abandoned) {
+            request.result().completeExceptionally(new IllegalStateException("Embedding server is shutting down."));
+        }
+    }
+
+    private void dispatch() {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+        while (!closed) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    Request next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                run(batch);
+            } catch (InterruptedException e) {
+                for (Request request : batch) {
+                    request.result().completeExceptionally(e);
+                }
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void run(List<Request> batch) throws InterruptedException {
+        List<Image> inputs = new ArrayList<>(batch.size());
+        for (Request request : batch) {
+            inputs.add(request.image());
+        }
+        batches.incrementAndGet();
+        images.addAndGet(batch.size());
+        try {
+            List<float[]> embeddings = service.embedBatch(inputs);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result().complete(embeddings.get(i));
+            }
+        } catch (RuntimeException | TranslateException e) {
+            for (Request request : batch) {
+                request.result().completeExceptionally(e);
+            }
+        }
+    }
+
+    private record Request(Image image, CompletableFuture<float[]> result) {
+    }
+}
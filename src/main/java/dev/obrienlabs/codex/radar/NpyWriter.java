@@ -1,62 +1,299 @@
 package dev.obrienlabs.codex.radar;
 
 import java.io.IOException;
-import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
+import java.util.StringJoiner;
 
-final class NpyWriter {
+final class NpyWriter implements AutoCloseable {
     private static final byte[] MAGIC = {(byte) 0x93, 'N', 'U', 'M', 'P', 'Y'};
+    // The header is reserved at a fixed size so the shape can be patched in place on close.
+    static final int HEADER_SIZE = 128;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String INDEX_DESCR = "<i8";
 
-    private NpyWriter() {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final EmbeddingPrecision precision;
+    private final String descr;
+    private final boolean vector;
+    // Non-zero when each row holds this many consecutive embeddings, stored as a 3-D (rows, frames, dim) array.
+    private final int frames;
+    private final NpyWriter scales;
+    private final QuantizationStats stats;
+    private float[] restored;
+    private long rowCount;
+    private int colCount = -1;
+
+    private NpyWriter(FileChannel channel, EmbeddingPrecision precision, String descr, boolean vector, int frames,
+                      NpyWriter scales) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        this.precision = precision;
+        this.descr = descr;
+        this.vector = vector;
+        this.frames = frames;
+        this.scales = scales;
+        this.stats = precision == EmbeddingPrecision.F32 ? null : new QuantizationStats();
+    }
+
+    static NpyWriter open(Path output) throws IOException {
+        return open(output, EmbeddingPrecision.F32);
+    }
+
+    static NpyWriter open(Path output, EmbeddingPrecision precision) throws IOException {
+        return open(output, precision, 0);
+    }
+
+    // Rows passed to writeRow are `frames` embeddings laid end to end; INT8 scales then apply per row.
+    static NpyWriter open(Path output, EmbeddingPrecision precision, int frames) throws IOException {
+        NpyWriter scales = precision == EmbeddingPrecision.INT8
+            ? create(scalesPath(output), EmbeddingPrecision.F32, EmbeddingPrecision.F32.descr(), true, 0, null)
+            : null;
+        return create(output, precision, precision.descr(), false, frames, scales);
+    }
+
+    // A 1-D int64 array of row numbers, written with writeIndex.
+    static NpyWriter openIndex(Path output) throws IOException {
+        return create(output, EmbeddingPrecision.F32, INDEX_DESCR, true, 0, null);
+    }
+
+    private static NpyWriter create(Path output, EmbeddingPrecision precision, String descr, boolean vector,
+                                    int frames, NpyWriter scales) throws IOException {
+        Path parent = output.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        NpyWriter writer = new NpyWriter(channel, precision, descr, vector, frames, scales);
+        writer.writeHeader();
+        channel.position(HEADER_SIZE);
+        return writer;
+    }
+
+    // Reopens an existing output for appending, dropping anything past the first keepRows rows.
+    static NpyWriter append(Path output, EmbeddingPrecision precision, long keepRows) throws IOException {
+        if (!Files.exists(output)) {
+            return open(output, precision);
+        }
+        NpyWriter scales = precision == EmbeddingPrecision.INT8
+            ? reopen(scalesPath(output), EmbeddingPrecision.F32, true, null, keepRows)
+            : null;
+        return reopen(output, precision, false, scales, keepRows);
+    }
+
+    private static NpyWriter reopen(Path output, EmbeddingPrecision precision, boolean vector, NpyWriter scales,
+                                    long keepRows) throws IOException {
+        EmbeddingStore.NpyHeader header = EmbeddingStore.NpyHeader.read(output);
+        if (header.dataOffset() != HEADER_SIZE || header.shape().length != (vector ? 1 : 2)) {
+            throw new IOException("Cannot append to " + output + ": not written by radar-embed.");
+        }
+        if (EmbeddingPrecision.fromDescr(header.descr()) != precision) {
+            throw new IllegalArgumentException("Cannot append " + precision + " embeddings to " + output
+                + " which stores " + EmbeddingPrecision.fromDescr(header.descr()) + ".");
+        }
+        if (header.shape()[0] < keepRows) {
+            throw new IOException("Cannot append to " + output + ": it holds " + header.shape()[0]
+                + " rows but the metadata lists " + keepRows + ".");
+        }
+        int columns = vector ? 1 : Math.toIntExact(header.shape()[1]);
+        long end = HEADER_SIZE + keepRows * columns * precision.bytes();
+        FileChannel channel = FileChannel.open(output, StandardOpenOption.WRITE);
+        channel.truncate(end);
+        channel.position(end);
+        NpyWriter writer = new NpyWriter(channel, precision, precision.descr(), vector, 0, scales);
+        writer.rowCount = keepRows;
+        if (!vector && keepRows > 0) {
+            writer.colCount = columns;
+            writer.restored = writer.stats == null ? null : new float[columns];
+        }
+        writer.writeHeader();
+        return writer;
+    }
+
+    static Path scalesPath(Path output) {
+        String fileName = output.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        return output.resolveSibling((dot == -1 ? fileName : fileName.substring(0, dot)) + ".scales.npy");
     }
 
     static void writeFloatMatrix(Path output, List<float[]> rows) throws IOException {
         if (rows.isEmpty()) {
             throw new IllegalArgumentException("No embeddings to write.");
         }
+        try (NpyWriter writer = open(output)) {
+            writer.writeRows(rows);
+        }
+    }
 
-        int rowCount = rows.size();
-        int colCount = rows.get(0).length;
+    void writeRows(List<float[]> rows) throws IOException {
         for (float[] row : rows) {
-            if (row.length != colCount) {
-                throw new IllegalArgumentException("Inconsistent embedding dimensions.");
+            writeRow(row);
+        }
+    }
+
+    void writeRow(float[] row) throws IOException {
+        if (vector) {
+            throw new IllegalStateException("Cannot write rows to a 1-D array.");
+        }
+        if (colCount == -1) {
+            if (frames > 0 && row.length % frames != 0) {
+                throw new IllegalArgumentException("Row of " + row.length + " values does not hold " + frames
+                    + " embeddings.");
+            }
+            colCount = row.length;
+            restored = stats == null ? null : new float[colCount];
+        } else if (row.length != colCount) {
+            throw new IllegalArgumentException("Inconsistent embedding dimensions.");
+        }
+
+        float scale = 0f;
+        float inverseScale = 0f;
+        if (precision == EmbeddingPrecision.INT8) {
+            scale = EmbeddingPrecision.int8Scale(row);
+            inverseScale = scale == 0f ? 0f : 1f / scale;
+            scales.writeValue(scale);
+        }
+        int offset = 0;
+        while (offset < row.length) {
+            if (buffer.remaining() < precision.bytes()) {
+                flushBuffer();
+            }
+            int count = Math.min(row.length - offset, buffer.remaining() / precision.bytes());
+            switch (precision) {
+                case F32 -> {
+                    buffer.asFloatBuffer().put(row, offset, count);
+                    buffer.position(buffer.position() + count * Float.BYTES);
+                }
+                case F16 -> {
+                    for (int i = offset; i < offset + count; i++) {
+                        short half = Float.floatToFloat16(row[i]);
+                        buffer.putShort(half);
+                        restored[i] = Float.float16ToFloat(half);
+                    }
+                }
+                case INT8 -> {
+                    for (int i = offset; i < offset + count; i++) {
+                        byte quantized = EmbeddingPrecision.quantize(row[i], inverseScale);
+                        buffer.put(quantized);
+                        restored[i] = quantized * scale;
+                    }
+                }
             }
+            offset += count;
         }
+        if (stats != null) {
+            stats.record(row, restored);
+        }
+        rowCount++;
+    }
 
-        String header = String.format("{'descr': '<f4', 'fortran_order': False, 'shape': (%d, %d), }",
-            rowCount, colCount);
-        byte[] headerBytes = buildHeader(header);
+    long rowCount() {
+        return rowCount;
+    }
 
-        Path parent = output.toAbsolutePath().getParent();
-        if (parent != null) {
-            Files.createDirectories(parent);
+    EmbeddingPrecision precision() {
+        return precision;
+    }
+
+    QuantizationStats quantizationStats() {
+        return stats;
+    }
+
+    // Makes every row written so far visible to readers of the file.
+    void flush() throws IOException {
+        flushBuffer();
+        writeHeader();
+        if (scales != null) {
+            scales.flush();
         }
+    }
 
-        try (OutputStream stream = Files.newOutputStream(output)) {
-            stream.write(MAGIC);
-            stream.write(new byte[]{1, 0});
-            stream.write(ByteBuffer.allocate(2).order(ByteOrder.LITTLE_ENDIAN).putShort((short) headerBytes.length).array());
-            stream.write(headerBytes);
-            ByteBuffer buffer = ByteBuffer.allocate(rowCount * colCount * Float.BYTES)
-                .order(ByteOrder.LITTLE_ENDIAN);
-            for (float[] row : rows) {
-                for (float value : row) {
-                    buffer.putFloat(value);
-                }
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+            writeHeader();
+        } finally {
+            channel.close();
+            if (scales != null) {
+                scales.close();
             }
-            stream.write(buffer.array());
+        }
+    }
+
+    void writeIndex(long value) throws IOException {
+        if (!INDEX_DESCR.equals(descr)) {
+            throw new IllegalStateException("Not an index array.");
+        }
+        if (buffer.remaining() < Long.BYTES) {
+            flushBuffer();
+        }
+        buffer.putLong(value);
+        rowCount++;
+    }
+
+    private void writeValue(float value) throws IOException {
+        if (buffer.remaining() < Float.BYTES) {
+            flushBuffer();
+        }
+        buffer.putFloat(value);
+        rowCount++;
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void writeHeader() throws IOException {
+        long[] shape;
+        if (vector) {
+            shape = new long[] {rowCount};
+        } else if (frames > 0) {
+            shape = new long[] {rowCount, frames, Math.max(colCount, 0) / frames};
+        } else {
+            shape = new long[] {rowCount, Math.max(colCount, 0)};
+        }
+        writeHeader(channel, descr, shape);
+    }
+
+    // Writes a header of the reserved size at the start of the channel, so data begins at HEADER_SIZE.
+    static void writeHeader(FileChannel channel, String descr, long... shape) throws IOException {
+        StringJoiner dims = new StringJoiner(", ", "(", shape.length == 1 ? ",)" : ")");
+        for (long dim : shape) {
+            dims.add(Long.toString(dim));
+        }
+        String header = "{'descr': '" + descr + "', 'fortran_order': False, 'shape': " + dims + ", }";
+        ByteBuffer headerBuffer = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        headerBuffer.put(MAGIC);
+        headerBuffer.put((byte) 1).put((byte) 0);
+        headerBuffer.putShort((short) (HEADER_SIZE - MAGIC.length - 4));
+        headerBuffer.put(buildHeader(header));
+        headerBuffer.flip();
+        long position = 0;
+        while (headerBuffer.hasRemaining()) {
+            position += channel.write(headerBuffer, position);
         }
     }
 
     private static byte[] buildHeader(String header) {
         int preamble = MAGIC.length + 2 + 2;
-        int headerLen = header.length() + 1;
-        int padding = (16 - ((preamble + headerLen) % 16)) % 16;
+        int padding = HEADER_SIZE - preamble - header.length() - 1;
+        if (padding < 0) {
+            throw new IllegalStateException("NPY header exceeds reserved size: " + header);
+        }
         String padded = header + " ".repeat(padding) + "\n";
-        return padded.getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+        return padded.getBytes(StandardCharsets.US_ASCII);
     }
 }
@@ -0,0 +1,211 @@
+package dev.obrienlabs.codex.radar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+
+// A hashed path -> row index in <base>.idx, plus the paths appended since it was last rewritten, which
+// PathIndexWriter logs to <base>.idx.log.
+final class PathIndex {
+    private static final int MAGIC = 0x58495052;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int SLOT_SIZE = 2 * Long.BYTES;
+    static final int LOG_MAGIC = 0x474c5052;
+    static final int LOG_HEADER_SIZE = 16;
+
+    private final MappedFile file;
+    private final long rowCount;
+    private final long capacity;
+    private final long offsetsStart;
+    private final List<String> logged;
+    private final Map<String, Long> loggedRows;
+
+    private PathIndex(MappedFile file, long rowCount, long capacity, List<String> logged) {
+        this.file = file;
+        this.rowCount = rowCount;
+        this.capacity = capacity;
+        this.offsetsStart = HEADER_SIZE + capacity * SLOT_SIZE;
+        this.logged = logged;
+        this.loggedRows = new HashMap<>(logged.size() * 2);
+        for (int i = 0; i < logged.size(); i++) {
+            loggedRows.putIfAbsent(logged.get(i), rowCount + i);
+        }
+    }
+
+    static Path pathFor(Path output) {
+        String fileName = output.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        return output.resolveSibling((dot == -1 ? fileName : fileName.substring(0, dot)) + ".idx");
+    }
+
+    static Path logPath(Path indexPath) {
+        return indexPath.resolveSibling(indexPath.getFileName() + ".log");
+    }
+
+    static PathIndex open(Path indexPath) throws IOException {
+        MappedFile header = MappedFile.map(indexPath, 0);
+        if (header.size() < HEADER_SIZE || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("Not a path index: " + indexPath);
+        }
+        long rowCount = header.getLong(8);
+        long capacity = header.getLong(16);
+        int maxPathLength = header.getInt(24);
+        return new PathIndex(MappedFile.map(indexPath, maxPathLength), rowCount, capacity,
+            readLog(logPath(indexPath), rowCount));
+    }
+
+    // The complete records of the log that follow row indexedRows; a torn last record is ignored. The log
+    // header holds the row count of the .idx it extends, so records already folded into a newer .idx by an
+    // interrupted compaction are skipped.
+    static List<String> readLog(Path logPath, long indexedRows) throws IOException {
+        List<String> paths = new ArrayList<>();
+        if (!Files.exists(logPath)) {
+            return paths;
+        }
+        ByteBuffer log = ByteBuffer.wrap(Files.readAllBytes(logPath)).order(ByteOrder.LITTLE_ENDIAN);
+        if (log.remaining() < LOG_HEADER_SIZE || log.getInt(0) != LOG_MAGIC || log.getInt(4) != VERSION) {
+            throw new IOException("Not a path index log: " + logPath);
+        }
+        long skip = indexedRows - log.getLong(8);
+        if (skip < 0) {
+            throw new IOException(logPath + " extends " + log.getLong(8) + " indexed rows but the index holds "
+                + indexedRows);
+        }
+        log.position(LOG_HEADER_SIZE);
+        while (log.remaining() >= Integer.BYTES) {
+            int length = log.getInt(log.position());
+            if (length < 0 || log.remaining() - Integer.BYTES < length) {
+                break;
+            }
+            byte[] bytes = new byte[length];
+            log.position(log.position() + Integer.BYTES).get(bytes);
+            if (skip > 0) {
+                skip--;
+            } else {
+                paths.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+        }
+        return paths;
+    }
+
+    static void write(Path indexPath, List<String> paths) throws IOException {
+        write(indexPath, paths.size(), paths);
+    }
+
+    // Makes two passes over paths, which must yield the same rowCount paths each time.
+    static void write(Path indexPath, long rowCount, Iterable<String> paths) throws IOException {
+        long capacity = Long.highestOneBit(Math.max(2, rowCount * 2 - 1)) << 1;
+        long blobSize = 0;
+        int maxPathLength = 0;
+        for (String path : paths) {
+            int length = path.getBytes(StandardCharsets.UTF_8).length;
+            blobSize += length;
+            maxPathLength = Math.max(maxPathLength, length);
+        }
+        long offsetsStart = HEADER_SIZE + capacity * SLOT_SIZE;
+        long blobStart = offsetsStart + (rowCount + 1) * Long.BYTES;
+
+        Path parent = indexPath.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        MappedFile file = MappedFile.create(indexPath, blobStart + blobSize, maxPathLength);
+        ByteBuffer header = file.slice(0, HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(rowCount).putLong(capacity).putInt(maxPathLength);
+
+        long blobOffset = 0;
+        Iterator<String> iterator = paths.iterator();
+        for (long row = 0; row < rowCount; row++) {
+            byte[] bytes = iterator.next().getBytes(StandardCharsets.UTF_8);
+            file.putLong(offsetsStart + row * Long.BYTES, blobOffset);
+            file.put(blobStart + blobOffset, bytes);
+            blobOffset += bytes.length;
+
+            long hash = hash(bytes);
+            long slot = hash & (capacity - 1);
+            while (file.getLong(HEADER_SIZE + slot * SLOT_SIZE + Long.BYTES) != 0) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            file.putLong(HEADER_SIZE + slot * SLOT_SIZE, hash);
+            file.putLong(HEADER_SIZE + slot * SLOT_SIZE + Long.BYTES, row + 1);
+        }
+        file.putLong(offsetsStart + rowCount * Long.BYTES, blobOffset);
+        file.force();
+    }
+
+    long rowCount() {
+        return rowCount + logged.size();
+    }
+
+    // Rows in the hashed .idx itself; the rest come from the log.
+    long indexedRows() {
+        return rowCount;
+    }
+
+    OptionalLong rowOf(String path) {
+        OptionalLong indexed = indexedRowOf(path);
+        if (indexed.isPresent() || logged.isEmpty()) {
+            return indexed;
+        }
+        Long row = loggedRows.get(path);
+        return row == null ? OptionalLong.empty() : OptionalLong.of(row);
+    }
+
+    private OptionalLong indexedRowOf(String path) {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer key = ByteBuffer.wrap(bytes);
+        long hash = hash(bytes);
+        long slot = hash & (capacity - 1);
+        while (true) {
+            long position = HEADER_SIZE + slot * SLOT_SIZE;
+            long stored = file.getLong(position + Long.BYTES);
+            if (stored == 0) {
+                return OptionalLong.empty();
+            }
+            long row = stored - 1;
+            if (file.getLong(position) == hash && key.equals(pathBytes(row))) {
+                return OptionalLong.of(row);
+            }
+            slot = (slot + 1) & (capacity - 1);
+        }
+    }
+
+    String path(long row) {
+        if (row >= rowCount && row - rowCount < logged.size()) {
+            return logged.get((int) (row - rowCount));
+        }
+        ByteBuffer bytes = pathBytes(row);
+        byte[] copy = new byte[bytes.remaining()];
+        bytes.get(copy);
+        return new String(copy, StandardCharsets.UTF_8);
+    }
+
+    private ByteBuffer pathBytes(long row) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("Row " + row + " outside index of " + rowCount + " rows");
+        }
+        long start = file.getLong(offsetsStart + row * Long.BYTES);
+        long end = file.getLong(offsetsStart + (row + 1) * Long.BYTES);
+        long blobStart = offsetsStart + (rowCount + 1) * Long.BYTES;
+        return file.slice(blobStart + start, (int) (end - start));
+    }
+
+    static long hash(byte[] bytes) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
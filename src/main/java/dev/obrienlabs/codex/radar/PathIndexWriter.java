@@ -0,0 +1,207 @@
+package dev.obrienlabs.codex.radar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Grows a path index without rewriting it per batch: new paths are appended to <base>.idx.log, which
+// PathIndex.open replays, and folded into the hashed .idx once the log is as long as the index (at least
+// MIN_COMPACT_ROWS) or the writer closes. Compacting geometrically keeps the total rewrite work linear.
+final class PathIndexWriter implements AutoCloseable {
+    static final int MIN_COMPACT_ROWS = 1 << 16;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path indexPath;
+    private final Path logPath;
+    private final FileChannel log;
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final List<String> logged = new ArrayList<>();
+    // Read by contains() on the scanning thread while the write thread appends and compacts.
+    private final Map<String, Long> loggedRows = new ConcurrentHashMap<>();
+    private volatile PathIndex indexed;
+    private String firstPath;
+    private String lastPath;
+
+    private PathIndexWriter(Path indexPath, FileChannel log, PathIndex indexed) {
+        this.indexPath = indexPath;
+        this.logPath = PathIndex.logPath(indexPath);
+        this.log = log;
+        this.indexed = indexed;
+    }
+
+    static PathIndexWriter create(Path indexPath) throws IOException {
+        PathIndex.write(indexPath, List.of());
+        return open(indexPath, PathIndex.open(indexPath));
+    }
+
+    // Continues an existing index, first folding in whatever an earlier run left in its log.
+    static PathIndexWriter append(Path indexPath) throws IOException {
+        PathIndex existing = PathIndex.open(indexPath);
+        if (existing.rowCount() == existing.indexedRows()) {
+            return open(indexPath, existing);
+        }
+        long rows = existing.rowCount();
+        compact(indexPath, rows, new Iterable<>() {
+            @Override
+            public Iterator<String> iterator() {
+                return paths(existing, rows);
+            }
+        });
+        return open(indexPath, PathIndex.open(indexPath));
+    }
+
+    private static PathIndexWriter open(Path indexPath, PathIndex indexed) throws IOException {
+        FileChannel log = FileChannel.open(PathIndex.logPath(indexPath), StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        try {
+            writeLogHeader(log, indexed.indexedRows());
+        } catch (IOException e) {
+            log.close();
+            throw e;
+        }
+        return new PathIndexWriter(indexPath, log, indexed);
+    }
+
+    void add(String path) {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        if (buffer.remaining() < Integer.BYTES + bytes.length) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position()
+                + Integer.BYTES + bytes.length)).order(ByteOrder.LITTLE_ENDIAN);
+            buffer = grown.put(buffer.flip());
+        }
+        buffer.putInt(bytes.length).put(bytes);
+        loggedRows.putIfAbsent(path, rowCount());
+        logged.add(path);
+        if (firstPath == null) {
+            firstPath = path;
+        }
+        lastPath = path;
+    }
+
+    // True once enough paths are buffered that the caller should flush.
+    boolean flushDue() {
+        return buffer.position() >= BUFFER_SIZE;
+    }
+
+    boolean contains(String path) {
+        return loggedRows.containsKey(path) || indexed.rowOf(path).isPresent();
+    }
+
+    long rowCount() {
+        return indexed.indexedRows() + logged.size();
+    }
+
+    String firstPath() {
+        return firstPath == null ? "" : firstPath;
+    }
+
+    String lastPath() {
+        return lastPath == null ? "" : lastPath;
+    }
+
+    // Appends buffered paths to the log; callers flush the rows they describe first.
+    void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            log.write(buffer);
+        }
+        buffer.clear();
+        if (buffer.capacity() > BUFFER_SIZE) {
+            buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (logged.size() >= Math.max(MIN_COMPACT_ROWS, indexed.indexedRows())) {
+            compact();
+        }
+    }
+
+    private void compact() throws IOException {
+        PathIndex current = indexed;
+        long rows = rowCount();
+        List<String> tail = logged;
+        compact(indexPath, rows, new Iterable<>() {
+            @Override
+            public Iterator<String> iterator() {
+                Iterator<String> head = paths(current, current.indexedRows());
+                Iterator<String> rest = tail.iterator();
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return head.hasNext() || rest.hasNext();
+                    }
+
+                    @Override
+                    public String next() {
+                        return head.hasNext() ? head.next() : rest.next();
+                    }
+                };
+            }
+        });
+        // Until the header is rewritten, readers skip the logged records the new .idx already holds.
+        log.truncate(0);
+        writeLogHeader(log, rows);
+        indexed = PathIndex.open(indexPath);
+        logged.clear();
+        loggedRows.clear();
+    }
+
+    private static void compact(Path indexPath, long rows, Iterable<String> paths) throws IOException {
+        Path staging = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        PathIndex.write(staging, rows, paths);
+        Files.move(staging, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Iterator<String> paths(PathIndex index, long rows) {
+        return new Iterator<>() {
+            private long row;
+
+            @Override
+            public boolean hasNext() {
+                return row < rows;
+            }
+
+            @Override
+            public String next() {
+                if (row >= rows) {
+                    throw new NoSuchElementException();
+                }
+                return index.path(row++);
+            }
+        };
+    }
+
+    private static void writeLogHeader(FileChannel log, long indexedRows) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(PathIndex.LOG_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(PathIndex.LOG_MAGIC).putInt(1).putLong(indexedRows).flip();
+        long position = 0;
+        while (header.hasRemaining()) {
+            position += log.write(header, position);
+        }
+        log.position(PathIndex.LOG_HEADER_SIZE);
+    }
+
+    // Folds the log into the .idx, which then stands alone.
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            if (!logged.isEmpty()) {
+                compact();
+            }
+        } finally {
+            log.close();
+        }
+        Files.deleteIfExists(logPath);
+    }
+}
@@ -0,0 +1,109 @@
+package dev.obrienlabs.codex.radar;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class PipelineMetrics {
+    private final LatencyHistogram decode = new LatencyHistogram();
+    private final LatencyHistogram preprocess = new LatencyHistogram();
+    private final LatencyHistogram write = new LatencyHistogram();
+    private final QueueDepth decodedQueue = new QueueDepth();
+    private final QueueDepth inferenceQueue = new QueueDepth();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong batchCapacity = new AtomicLong();
+    private final AtomicLong framesBatched = new AtomicLong();
+    private final AtomicLong framesInferred = new AtomicLong();
+    private final AtomicLong framesWritten = new AtomicLong();
+    private final AtomicLong tilesScanned = new AtomicLong();
+    private final AtomicLong tilesKept = new AtomicLong();
+
+    LatencyHistogram decode() {
+        return decode;
+    }
+
+    LatencyHistogram preprocess() {
+        return preprocess;
+    }
+
+    LatencyHistogram write() {
+        return write;
+    }
+
+    QueueDepth decodedQueue() {
+        return decodedQueue;
+    }
+
+    QueueDepth inferenceQueue() {
+        return inferenceQueue;
+    }
+
+    void recordBatch(int capacity, int frames, int inferred) {
+        batches.incrementAndGet();
+        batchCapacity.addAndGet(capacity);
+        framesBatched.addAndGet(frames);
+        framesInferred.addAndGet(inferred);
+    }
+
+    void recordWritten(int rows) {
+        framesWritten.addAndGet(rows);
+    }
+
+    void recordTiles(int scanned, int kept) {
+        tilesScanned.addAndGet(scanned);
+        tilesKept.addAndGet(kept);
+    }
+
+    long tilesScanned() {
+        return tilesScanned.get();
+    }
+
+    long tilesKept() {
+        return tilesKept.get();
+    }
+
+    long batches() {
+        return batches.get();
+    }
+
+    long framesWritten() {
+        return framesWritten.get();
+    }
+
+    // Share of batch slots sent to the model.
+    double batchFill() {
+        long capacity = batchCapacity.get();
+        return capacity == 0 ? 0.0 : (double) framesInferred.get() / capacity;
+    }
+
+    double meanBatchFrames() {
+        long count = batches.get();
+        return count == 0 ? 0.0 : (double) framesBatched.get() / count;
+    }
+
+    static final class QueueDepth {
+        private final AtomicInteger current = new AtomicInteger();
+        private final AtomicInteger max = new AtomicInteger();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong samples = new AtomicLong();
+
+        void sample(int depth) {
+            current.set(depth);
+            max.accumulateAndGet(depth, Math::max);
+            sum.addAndGet(depth);
+            samples.incrementAndGet();
+        }
+
+        int current() {
+            return current.get();
+        }
+
+        int max() {
+            return max.get();
+        }
+
+        double mean() {
+            long count = samples.get();
+            return count == 0 ? 0.0 : (double) sum.get() / count;
+        }
+    }
+}
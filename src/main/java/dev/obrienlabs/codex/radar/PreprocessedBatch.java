@@ -0,0 +1,75 @@
+package dev.obrienlabs.codex.radar;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+final class PreprocessedBatch {
+    static final int CHANNELS = 3;
+    static final int IMAGE_FLOATS = CHANNELS * EmbeddingService.CROP_SIZE * EmbeddingService.CROP_SIZE;
+
+    private final ByteBuffer bytes;
+    private final FloatBuffer floats;
+    private final Scratch[] scratch;
+    private int size;
+
+    PreprocessedBatch(int capacity) {
+        this.bytes = ByteBuffer.allocateDirect(capacity * IMAGE_FLOATS * Float.BYTES).order(ByteOrder.nativeOrder());
+        this.floats = bytes.asFloatBuffer();
+        this.scratch = new Scratch[capacity];
+        for (int i = 0; i < capacity; i++) {
+            scratch[i] = new Scratch(EmbeddingService.CROP_SIZE);
+        }
+    }
+
+    int capacity() {
+        return scratch.length;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void size(int size) {
+        if (size < 0 || size > capacity()) {
+            throw new IllegalArgumentException("Batch size " + size + " exceeds capacity " + capacity());
+        }
+        this.size = size;
+    }
+
+    FloatBuffer floats() {
+        return floats;
+    }
+
+    Scratch scratch(int slot) {
+        return scratch[slot];
+    }
+
+    ByteBuffer tensorBytes() {
+        return bytes.duplicate().order(ByteOrder.nativeOrder()).limit(size * IMAGE_FLOATS * Float.BYTES);
+    }
+
+    void move(int from, int to) {
+        if (from != to) {
+            floats.put(to * IMAGE_FLOATS, floats, from * IMAGE_FLOATS, IMAGE_FLOATS);
+        }
+    }
+
+    static final class Scratch {
+        final int[] x0;
+        final int[] x1;
+        final float[] wx;
+        final int[] y0;
+        final int[] y1;
+        final float[] wy;
+
+        private Scratch(int size) {
+            x0 = new int[size];
+            x1 = new int[size];
+            wx = new float[size];
+            y0 = new int[size];
+            y1 = new int[size];
+            wy = new float[size];
+        }
+    }
+}
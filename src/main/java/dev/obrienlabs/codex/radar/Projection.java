@@ -0,0 +1,398 @@
+package dev.obrienlabs.codex.radar;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+// Linear map from backbone embeddings to fewer dimensions, saved as <base>.projection so later runs and
+// search queries reduce vectors the same way. Component rows are orthonormal, so the share of variance a
+// projection keeps is simply the projected variance over the input variance.
+final class Projection {
+    private static final int MAGIC = 0x4a4f5250;
+    private static final int VERSION = 1;
+    // Extra subspace vectors and power iterations for the PCA eigensolver; plenty for the fast spectral
+    // decay of pooled CNN features.
+    private static final int OVERSAMPLING = 16;
+    private static final int POWER_ITERATIONS = 10;
+    private static final long PCA_SEED = 0x5eed;
+
+    enum Method {
+        PCA, RANDOM
+    }
+
+    private final Method method;
+    private final int inputDimension;
+    private final int outputDimension;
+    private final float[] mean;
+    private final float[] components;
+    private final double explainedVariance;
+
+    private Projection(Method method, int inputDimension, int outputDimension, float[] mean, float[] components,
+                       double explainedVariance) {
+        this.method = method;
+        this.inputDimension = inputDimension;
+        this.outputDimension = outputDimension;
+        this.mean = mean;
+        this.components = components;
+        this.explainedVariance = explainedVariance;
+    }
+
+    static Path pathFor(Path output) {
+        String fileName = output.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        return output.resolveSibling((dot == -1 ? fileName : fileName.substring(0, dot)) + ".projection");
+    }
+
+    // Seeded Gaussian directions, orthonormalized; uncentred, so it needs no pass over the data.
+    static Projection random(int inputDimension, int outputDimension, long seed) {
+        checkDimensions(inputDimension, outputDimension);
+        SplittableRandom random = new SplittableRandom(seed);
+        double[] basis = new double[outputDimension * inputDimension];
+        for (int i = 0; i < basis.length; i++) {
+            basis[i] = random.nextGaussian();
+        }
+        orthonormalize(basis, outputDimension, inputDimension);
+        return new Projection(Method.RANDOM, inputDimension, outputDimension, new float[inputDimension],
+            toFloats(basis), Double.NaN);
+    }
+
+    private static void checkDimensions(int inputDimension, int outputDimension) {
+        if (outputDimension < 1 || outputDimension >= inputDimension) {
+            throw new IllegalArgumentException("Reduced dimensions must be between 1 and " + (inputDimension - 1)
+                + " for " + inputDimension + "-dimensional embeddings: " + outputDimension);
+        }
+    }
+
+    Method method() {
+        return method;
+    }
+
+    int inputDimension() {
+        return inputDimension;
+    }
+
+    int outputDimension() {
+        return outputDimension;
+    }
+
+    // Share of the fitting data's variance kept by a PCA projection; NaN for random projections.
+    double explainedVariance() {
+        return explainedVariance;
+    }
+
+    float[] project(float[] embedding) {
+        if (embedding.length != inputDimension) {
+            throw new IllegalArgumentException("Embedding has " + embedding.length + " dimensions but the "
+                + "projection expects " + inputDimension);
+        }
+        float[] reduced = new float[outputDimension];
+        for (int r = 0; r < outputDimension; r++) {
+            int base = r * inputDimension;
+            float sum = 0f;
+            for (int i = 0; i < inputDimension; i++) {
+                sum += components[base + i] * (embedding[i] - mean[i]);
+            }
+            reduced[r] = sum;
+        }
+        return reduced;
+    }
+
+    String describe() {
+        return method == Method.PCA
+            ? String.format(Locale.ROOT, "PCA %d -> %d dimensions (explained variance %.1f%%)", inputDimension,
+                outputDimension, 100 * explainedVariance)
+            : String.format(Locale.ROOT, "random projection %d -> %d dimensions", inputDimension, outputDimension);
+    }
+
+    void save(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(method.ordinal());
+            out.writeInt(inputDimension);
+            out.writeInt(outputDimension);
+            out.writeDouble(explainedVariance);
+            for (float value : mean) {
+                out.writeFloat(value);
+            }
+            for (float value : components) {
+                out.writeFloat(value);
+            }
+        }
+    }
+
+    static Projection load(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a radar-embed projection: " + path);
+            }
+            int ordinal = in.readInt();
+            if (ordinal < 0 || ordinal >= Method.values().length) {
+                throw new IOException("Unknown projection method " + ordinal + " in " + path);
+            }
+            int inputDimension = in.readInt();
+            int outputDimension = in.readInt();
+            double explainedVariance = in.readDouble();
+            float[] mean = new float[inputDimension];
+            for (int i = 0; i < mean.length; i++) {
+                mean[i] = in.readFloat();
+            }
+            float[] components = new float[Math.multiplyExact(inputDimension, outputDimension)];
+            for (int i = 0; i < components.length; i++) {
+                components[i] = in.readFloat();
+            }
+            return new Projection(Method.values()[ordinal], inputDimension, outputDimension, mean, components,
+                explainedVariance);
+        }
+    }
+
+    // Modified Gram-Schmidt over the rows of a rows x columns matrix (rows <= columns).
+    private static void orthonormalize(double[] matrix, int rows, int columns) {
+        int filler = 0;
+        for (int r = 0; r < rows; r++) {
+            int row = r * columns;
+            double before = norm(matrix, row, columns);
+            for (int q = 0; q < r; q++) {
+                int other = q * columns;
+                double dot = 0;
+                for (int i = 0; i < columns; i++) {
+                    dot += matrix[row + i] * matrix[other + i];
+                }
+                for (int i = 0; i < columns; i++) {
+                    matrix[row + i] -= dot * matrix[other + i];
+                }
+            }
+            double norm = norm(matrix, row, columns);
+            if (norm <= 1e-10 * before || norm == 0) {
+                // The data spans fewer directions than requested; any orthogonal filler is as good as another.
+                if (filler == columns) {
+                    throw new IllegalStateException("Cannot orthonormalize " + rows + " rows of " + columns);
+                }
+                Arrays.fill(matrix, row, row + columns, 0);
+                matrix[row + filler++] = 1;
+                r--;
+                continue;
+            }
+            for (int i = 0; i < columns; i++) {
+                matrix[row + i] /= norm;
+            }
+        }
+    }
+
+    private static double norm(double[] matrix, int row, int columns) {
+        double sum = 0;
+        for (int i = 0; i < columns; i++) {
+            sum += matrix[row + i] * matrix[row + i];
+        }
+        return Math.sqrt(sum);
+    }
+
+    private static float[] toFloats(double[] values) {
+        float[] floats = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            floats[i] = (float) values[i];
+        }
+        return floats;
+    }
+
+    // Streaming sums for a PCA fit: the column sums and the upper triangle of the second-moment matrix.
+    static final class Covariance {
+        private final int dimension;
+        private final double[] sums;
+        private final double[] products;
+        private long rows;
+
+        Covariance(int dimension) {
+            this.dimension = dimension;
+            this.sums = new double[dimension];
+            this.products = new double[Math.multiplyExact(dimension, dimension)];
+        }
+
+        int dimension() {
+            return dimension;
+        }
+
+        long rows() {
+            return rows;
+        }
+
+        void add(float[] embedding) {
+            if (embedding.length != dimension) {
+                throw new IllegalArgumentException("Embedding has " + embedding.length + " dimensions, expected "
+                    + dimension);
+            }
+            rows++;
+            for (int i = 0; i < dimension; i++) {
+                double x = embedding[i];
+                sums[i] += x;
+                // Pooled ReLU features are often exactly zero, which makes their whole row free.
+                if (x == 0) {
+                    continue;
+                }
+                int base = i * dimension;
+                for (int j = i; j < dimension; j++) {
+                    products[base + j] += x * embedding[j];
+                }
+            }
+        }
+
+        // Top principal components by subspace iteration with a Rayleigh-Ritz step, so only a
+        // dimension x (components + oversampling) block is ever iterated rather than the full eigenproblem.
+        Projection fit(int outputDimension) {
+            checkDimensions(dimension, outputDimension);
+            if (rows < 2) {
+                throw new IllegalStateException("PCA needs at least 2 embeddings to fit, got " + rows);
+            }
+            double[] mean = new double[dimension];
+            for (int i = 0; i < dimension; i++) {
+                mean[i] = sums[i] / rows;
+            }
+            double[] covariance = new double[products.length];
+            double trace = 0;
+            for (int i = 0; i < dimension; i++) {
+                for (int j = i; j < dimension; j++) {
+                    double value = (products[i * dimension + j] - rows * mean[i] * mean[j]) / (rows - 1);
+                    covariance[i * dimension + j] = value;
+                    covariance[j * dimension + i] = value;
+                }
+                trace += covariance[i * dimension + i];
+            }
+
+            int block = Math.min(dimension, outputDimension + OVERSAMPLING);
+            SplittableRandom random = new SplittableRandom(PCA_SEED);
+            double[] basis = new double[block * dimension];
+            for (int i = 0; i < basis.length; i++) {
+                basis[i] = random.nextGaussian();
+            }
+            orthonormalize(basis, block, dimension);
+            for (int iteration = 0; iteration < POWER_ITERATIONS; iteration++) {
+                basis = multiply(covariance, basis, block);
+                orthonormalize(basis, block, dimension);
+            }
+
+            double[] image = multiply(covariance, basis, block);
+            double[] small = new double[block * block];
+            for (int a = 0; a < block; a++) {
+                for (int b = a; b < block; b++) {
+                    double dot = 0;
+                    for (int i = 0; i < dimension; i++) {
+                        dot += basis[a * dimension + i] * image[b * dimension + i];
+                    }
+                    small[a * block + b] = dot;
+                    small[b * block + a] = dot;
+                }
+            }
+            double[] vectors = new double[block * block];
+            double[] values = jacobi(small, vectors, block);
+            Integer[] order = new Integer[block];
+            for (int i = 0; i < block; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(values[b], values[a]));
+
+            double[] components = new double[outputDimension * dimension];
+            double kept = 0;
+            for (int r = 0; r < outputDimension; r++) {
+                int column = order[r];
+                kept += Math.max(0, values[column]);
+                for (int a = 0; a < block; a++) {
+                    double weight = vectors[a * block + column];
+                    for (int i = 0; i < dimension; i++) {
+                        components[r * dimension + i] += weight * basis[a * dimension + i];
+                    }
+                }
+            }
+            float[] floatMean = toFloats(mean);
+            return new Projection(Method.PCA, dimension, outputDimension, floatMean, toFloats(components),
+                trace <= 0 ? 0 : Math.min(1, kept / trace));
+        }
+
+        // covariance x each row of vectors, parallel over covariance rows.
+        private double[] multiply(double[] covariance, double[] vectors, int count) {
+            double[] result = new double[vectors.length];
+            IntStream.range(0, dimension).parallel().forEach(i -> {
+                int row = i * dimension;
+                for (int r = 0; r < count; r++) {
+                    int vector = r * dimension;
+                    double dot = 0;
+                    for (int j = 0; j < dimension; j++) {
+                        dot += covariance[row + j] * vectors[vector + j];
+                    }
+                    result[vector + i] = dot;
+                }
+            });
+            return result;
+        }
+    }
+
+    // Cyclic Jacobi rotations on a small symmetric matrix, which is destroyed. Eigenvectors are the columns
+    // of vectors; eigenvalues are returned in the same order.
+    static double[] jacobi(double[] matrix, double[] vectors, int size) {
+        Arrays.fill(vectors, 0);
+        for (int i = 0; i < size; i++) {
+            vectors[i * size + i] = 1;
+        }
+        for (int sweep = 0; sweep < 100; sweep++) {
+            double off = 0;
+            double total = 0;
+            for (int p = 0; p < size; p++) {
+                for (int q = 0; q < size; q++) {
+                    double value = matrix[p * size + q] * matrix[p * size + q];
+                    total += value;
+                    if (p != q) {
+                        off += value;
+                    }
+                }
+            }
+            if (off <= 1e-24 * total) {
+                break;
+            }
+            for (int p = 0; p < size - 1; p++) {
+                for (int q = p + 1; q < size; q++) {
+                    double apq = matrix[p * size + q];
+                    if (apq == 0) {
+                        continue;
+                    }
+                    double theta = (matrix[q * size + q] - matrix[p * size + p]) / (2 * apq);
+                    double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+                    if (theta == 0) {
+                        t = 1;
+                    }
+                    double c = 1 / Math.sqrt(t * t + 1);
+                    double s = t * c;
+                    for (int k = 0; k < size; k++) {
+                        double akp = matrix[k * size + p];
+                        double akq = matrix[k * size + q];
+                        matrix[k * size + p] = c * akp - s * akq;
+                        matrix[k * size + q] = s * akp + c * akq;
+                    }
+                    for (int k = 0; k < size; k++) {
+                        double apk = matrix[p * size + k];
+                        double aqk = matrix[q * size + k];
+                        matrix[p * size + k] = c * apk - s * aqk;
+                        matrix[q * size + k] = s * apk + c * aqk;
+                    }
+                    for (int k = 0; k < size; k++) {
+                        double vkp = vectors[k * size + p];
+                        double vkq = vectors[k * size + q];
+                        vectors[k * size + p] = c * vkp - s * vkq;
+                        vectors[k * size + q] = s * vkp + c * vkq;
+                    }
+                }
+            }
+        }
+        double[] values = new double[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = matrix[i * size + i];
+        }
+        return values;
+    }
+}
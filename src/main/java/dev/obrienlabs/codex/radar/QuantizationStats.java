@@ -0,0 +1,56 @@
+package dev.obrienlabs.codex.radar;
+
+import java.util.Locale;
+
+final class QuantizationStats {
+    private long rows;
+    private double cosineSum;
+    private double minCosine = 1.0;
+    private double maxAbsError;
+
+    void record(float[] original, float[] restored) {
+        double dot = 0;
+        double originalNorm = 0;
+        double restoredNorm = 0;
+        for (int i = 0; i < original.length; i++) {
+            dot += (double) original[i] * restored[i];
+            originalNorm += (double) original[i] * original[i];
+            restoredNorm += (double) restored[i] * restored[i];
+            maxAbsError = Math.max(maxAbsError, Math.abs(original[i] - restored[i]));
+        }
+        double cosine = originalNorm == 0 && restoredNorm == 0 ? 1.0
+            : dot / Math.sqrt(originalNorm * restoredNorm);
+        cosineSum += cosine;
+        minCosine = Math.min(minCosine, cosine);
+        rows++;
+    }
+
+    void merge(QuantizationStats other) {
+        rows += other.rows;
+        cosineSum += other.cosineSum;
+        minCosine = Math.min(minCosine, other.minCosine);
+        maxAbsError = Math.max(maxAbsError, other.maxAbsError);
+    }
+
+    long rows() {
+        return rows;
+    }
+
+    double meanCosine() {
+        return rows == 0 ? 1.0 : cosineSum / rows;
+    }
+
+    double minCosine() {
+        return minCosine;
+    }
+
+    double maxAbsError() {
+        return maxAbsError;
+    }
+
+    String summary(EmbeddingPrecision precision) {
+        return String.format(Locale.ROOT,
+            "%s vs fp32 over %d rows: mean cosine %.6f, min cosine %.6f, max abs error %.6g",
+            precision, rows, meanCosine(), minCosine, maxAbsError);
+    }
+}
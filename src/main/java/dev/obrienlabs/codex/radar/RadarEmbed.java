@@ -1,79 +1,588 @@
 package dev.obrienlabs.codex.radar;
 
 import ai.djl.Device;
-import ai.djl.modality.cv.Image;
-import ai.djl.modality.cv.ImageFactory;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
+import picocli.CommandLine.Model.CommandSpec;
 import picocli.CommandLine.Option;
+import picocli.CommandLine.ParameterException;
 import picocli.CommandLine.Parameters;
+import picocli.CommandLine.Spec;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.concurrent.Callable;
+import java.util.function.Predicate;
+import java.util.stream.StreamSupport;
 
 @Command(name = "radar-embed", mixinStandardHelpOptions = true, version = "radar-embed 0.1.0",
-    description = "Convert Doppler radar images into embeddings for generative models.")
+    description = "Convert Doppler radar images into embeddings for generative models.",
+    subcommands = {IndexCommand.class, SearchCommand.class, ServeCommand.class, MetadataCommand.class,
+        MergeCommand.class, UnpackCommand.class})
 public final class RadarEmbed implements Callable<Integer> {
 
-    @Parameters(index = "0", description = "Path to a radar image or directory of images.")
+    @Spec
+    private CommandSpec spec;
+
+    @Parameters(index = "0", arity = "0..1", description = "Path to a radar image or directory of images.")
     private Path input;
 
-    @Option(names = "--output", description = "Output .npy file path for embeddings (metadata saved as .json).",
+    @Option(names = "--output", description = "Output .npy file path for embeddings (metadata saved as .meta).",
         defaultValue = "embeddings.npy")
     private Path output;
 
-    @Option(names = "--batch-size", description = "Number of images per batch.", defaultValue = "16")
-    private int batchSize;
+    @Option(names = "--order", description = "Frame order: ${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE}). "
+        + "TIMESTAMP sorts by the time parsed from radar file names, STATION by station and then time; NONE "
+        + "streams frames as they are found.",
+        defaultValue = "LEXICAL")
+    private ImagePathLoader.Order order;
+
+    @Option(names = "--precision", description = "Stored precision: ${COMPLETION-CANDIDATES} "
+        + "(default: ${DEFAULT-VALUE}). INT8 also writes per-row scale factors to <output>.scales.npy.",
+        defaultValue = "F32")
+    private EmbeddingPrecision precision;
+
+    @Option(names = "--archive", description = "Also write the embeddings to <output>.npc, compressed in "
+        + "independently deflated chunks while the run continues; 'unpack' restores the .npy or any row range.")
+    private boolean archive;
+
+    @Option(names = "--archive-threads", description = "Threads compressing archive chunks (0 = a quarter of the "
+        + "cores, default: ${DEFAULT-VALUE}).", defaultValue = "0")
+    private int archiveThreads;
+
+    @Option(names = "--archive-level", description = "Deflate level for archive chunks, 1 (fastest) to 9 "
+        + "(smallest) (default: ${DEFAULT-VALUE}).", defaultValue = "1")
+    private int archiveLevel;
+
+    @Option(names = "--archive-chunk-rows", description = "Rows per archive chunk, the unit a reader inflates "
+        + "(0 = about 1 MiB of stored rows, default: ${DEFAULT-VALUE}).", defaultValue = "0")
+    private int archiveChunkRows;
+
+    @Option(names = "--shard", description = "Embed only this worker's share of the input, as i/n with "
+        + "0 <= i < n. Run n processes with distinct outputs and combine them with 'merge'.")
+    private String shard;
+
+    @Option(names = "--shard-rows", description = "Start a new output shard every N rows (0 = no row limit).",
+        defaultValue = "0")
+    private long shardRows;
+
+    @Option(names = "--shard-bytes", description = "Start a new output shard before it exceeds N bytes of "
+        + "embeddings (0 = no byte limit).", defaultValue = "0")
+    private long shardBytes;
+
+    @Option(names = "--batch-size", description = "Number of images per batch, or 'auto' to probe throughput "
+        + "and settle on the fastest size (default: ${DEFAULT-VALUE}).", defaultValue = "16")
+    private String batchSize;
+
+    @Option(names = "--max-batch-size", description = "Largest batch --batch-size auto may choose "
+        + "(default: ${DEFAULT-VALUE}).", defaultValue = "64")
+    private int maxBatchSize;
 
     @Option(names = "--device", description = "Device to run inference on (cpu or cuda).", defaultValue = "cpu")
     private String device;
 
+    @Option(names = "--predictors", description = "Number of predictors running batches concurrently.",
+        defaultValue = "1")
+    private int predictors;
+
+    @Option(names = "--interop-threads", description = "Engine inter-op thread count (0 = engine default).",
+        defaultValue = "0")
+    private int interopThreads;
+
+    @Option(names = "--intraop-threads", description = "Engine intra-op thread count (0 = engine default).",
+        defaultValue = "0")
+    private int intraopThreads;
+
+    @Option(names = "--model", description = "Load a local TorchScript file, or a directory holding one, "
+        + "instead of the ResNet-50 from the DJL model zoo.")
+    private Path modelPath;
+
+    @Option(names = "--backbone", description = "Also embed every frame with another model, decoded once and run "
+        + "alongside the main one, writing aligned rows to <output>.<NAME>.npy. NAME=MODEL[,resize=N][,crop=N]"
+        + "[,mean=R/G/B][,std=R/G/B], where MODEL is a TorchScript file or directory, or zoo:BACKBONE. Repeatable.")
+    private List<String> backbones = List.of();
+
+    @Option(names = "--offline", description = "Never download models or engine libraries; use local and "
+        + "cached files only.")
+    private boolean offline;
+
+    @Option(names = "--warmup-batches", description = "Synthetic batches run per predictor before timing starts "
+        + "(0 = none, default: ${DEFAULT-VALUE}).", defaultValue = "2")
+    private int warmupBatches;
+
+    @Option(names = "--cache-dir",
+        description = "Directory for the persistent embedding cache (default: <output>.cache).")
+    private Path cacheDir;
+
+    @Option(names = "--no-cache", description = "Re-embed every image without reading or updating the cache.")
+    private boolean noCache;
+
+    @Option(names = "--fused-preprocess",
+        description = "Resize, crop and normalize in a single pass into pooled batch buffers.")
+    private boolean fusedPreprocess;
+
+    @Option(names = "--subsample-decode", description = "Decode only every n-th row and column of large frames, "
+        + "keeping at least the 256-pixel resize target on each axis.")
+    private boolean subsampleDecode;
+
+    @Option(names = "--watch", description = "After embedding the input directory, keep watching it and append "
+        + "new frames to the existing outputs as they land.")
+    private boolean watch;
+
+    @Option(names = "--watch-settle-ms", description = "How long a new file's size and modification time must "
+        + "stay unchanged before it is embedded (default: ${DEFAULT-VALUE}).", defaultValue = "1000")
+    private long watchSettleMillis;
+
+    @Option(names = "--tile-size", description = "Split each image into tiles of N x N pixels and embed every "
+        + "tile with echo as its own row (0 = embed whole frames).", defaultValue = "0")
+    private int tileSize;
+
+    @Option(names = "--tile-min-echo", description = "Fraction of sampled pixels that must carry radar colour for "
+        + "a tile to be embedded (default: ${DEFAULT-VALUE}).", defaultValue = "0.005")
+    private double tileMinEcho;
+
+    @Option(names = "--dedup-threshold", description = "Reuse the embedding of the station's last embedded frame "
+        + "when a frame's 32x32 thumbnail differs from it by at most this mean absolute pixel difference (0-255); "
+        + "byte-identical frames are always reused. Off unless set.")
+    private Double dedupThreshold;
+
+    @Option(names = "--sequence-length", description = "Also write sliding windows of N consecutive frames per "
+        + "station to <output>.windows.npy (0 = off). Implies --order STATION.", defaultValue = "0")
+    private int sequenceLength;
+
+    @Option(names = "--sequence-stride", description = "Frames between the starts of consecutive windows "
+        + "(default: ${DEFAULT-VALUE}).", defaultValue = "1")
+    private int sequenceStride;
+
+    @Option(names = "--sequence-max-gap-minutes", description = "Start a new window run when consecutive frames "
+        + "are further apart than this (0 = no limit).", defaultValue = "0")
+    private long sequenceMaxGapMinutes;
+
+    @Option(names = "--sequence-dense", description = "Also copy each window into an (N, T, D) array in "
+        + "<output>.sequences.npy.")
+    private boolean sequenceDense;
+
+    @Option(names = "--reduce", description = "Store reduced embeddings: pca:N fits a PCA over the run, "
+        + "random:N applies a seeded random projection. The projection is saved as <output>.projection.")
+    private String reduce;
+
+    @Option(names = "--projection", description = "Reduce with a projection saved by an earlier run instead of "
+        + "fitting a new one.")
+    private Path projectionPath;
+
+    @Option(names = "--reduce-seed", description = "Seed for --reduce random:N (default: ${DEFAULT-VALUE}).",
+        defaultValue = "42")
+    private long reduceSeed;
+
+    @Option(names = "--metrics-json", description = "Write per-stage latency, throughput, batch fill, queue depth "
+        + "and memory metrics to this JSON file when the run finishes, and after each --watch batch.")
+    private Path metricsJson;
+
+    @Option(names = "--progress-interval", description = "Seconds between progress lines (0 = off, default: "
+        + "${DEFAULT-VALUE}).", defaultValue = "10")
+    private long progressSeconds;
+
     public static void main(String[] args) {
-        int exitCode = new CommandLine(new RadarEmbed()).execute(args);
+        int exitCode = new CommandLine(new RadarEmbed())
+            .setCaseInsensitiveEnumValuesAllowed(true)
+            .execute(args);
         System.exit(exitCode);
     }
 
     @Override
     public Integer call() throws Exception {
+        long jvmStartupMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        if (input == null) {
+            throw new ParameterException(spec.commandLine(), "Missing required parameter: '<input>'");
+        }
         if (!Files.exists(input)) {
             throw new IllegalArgumentException("Input path not found: " + input);
         }
 
-        List<Path> imagePaths = ImagePathLoader.load(input);
-        if (imagePaths.isEmpty()) {
-            throw new IllegalArgumentException("No images found to embed.");
+        if (watch && (shardRows > 0 || shardBytes > 0)) {
+            throw new IllegalArgumentException("--watch appends to a single output; drop --shard-rows/--shard-bytes.");
+        }
+        if (sequenceLength > 0 && (watch || shardRows > 0 || shardBytes > 0)) {
+            throw new IllegalArgumentException("--sequence-length needs a single ordered output; it cannot be "
+                + "combined with --watch or sharding.");
+        }
+        if (tileSize > 0 && sequenceLength > 0) {
+            throw new IllegalArgumentException("--tile-size and --sequence-length cannot be combined.");
+        }
+        if (reduce != null && projectionPath != null) {
+            throw new IllegalArgumentException("--reduce fits a new projection and --projection reuses one; "
+                + "pass only one.");
+        }
+        if (watch && (reduce != null || projectionPath != null)) {
+            throw new IllegalArgumentException("--watch appends full embeddings; drop --reduce/--projection.");
+        }
+        if (watch && archive) {
+            throw new IllegalArgumentException("An archive's chunk index is written when the run ends; drop "
+                + "--archive with --watch.");
+        }
+        List<BackboneSpec> backboneSpecs = new ArrayList<>();
+        backboneSpecs.add(BackboneSpec.primary(modelPath));
+        Set<String> backboneNames = new HashSet<>();
+        for (String backbone : backbones) {
+            BackboneSpec spec = BackboneSpec.parse(backbone);
+            if (!backboneNames.add(spec.name())) {
+                throw new IllegalArgumentException("Backbone name used twice: " + spec.name());
+            }
+            backboneSpecs.add(spec);
+        }
+        if (!backbones.isEmpty() && (watch || shardRows > 0 || shardBytes > 0 || tileSize > 0 || fusedPreprocess
+            || dedupThreshold != null)) {
+            throw new IllegalArgumentException("--backbone embeds decoded whole frames into one output per model; "
+                + "it cannot be combined with --watch, --shard-rows/--shard-bytes, --tile-size, --fused-preprocess "
+                + "or --dedup-threshold.");
+        }
+        WorkPartition partition = shard == null ? null : WorkPartition.parse(shard);
+        if (partition != null && sequenceLength > 0) {
+            throw new IllegalArgumentException("--sequence-length needs every frame of a station in one output; "
+                + "it cannot be combined with --shard.");
+        }
+        if (partition != null && reduce != null && reduce.toLowerCase(Locale.ROOT).startsWith("pca")) {
+            throw new IllegalArgumentException("Workers would each fit a different PCA; fit one first and pass "
+                + "--projection to every --shard worker.");
+        }
+        if (tileSize > 0 && subsampleDecode) {
+            throw new IllegalArgumentException("Tiles are cut from full-resolution frames; drop --subsample-decode.");
+        }
+        if (tileSize > 0 && dedupThreshold != null) {
+            throw new IllegalArgumentException("--dedup-threshold compares whole frames; drop it with --tile-size.");
+        }
+        TileGrid tiles = tileSize > 0 ? new TileGrid(tileSize, tileMinEcho) : null;
+        FrameDeduplicator dedup = dedupThreshold == null ? null : new FrameDeduplicator(dedupThreshold);
+        if (sequenceLength > 0) {
+            // Windows are runs of adjacent rows, so frames must be written grouped by station in time order.
+            order = ImagePathLoader.Order.STATION;
         }
 
         Device djlDevice = parseDevice(device);
-        List<float[]> embeddings = new ArrayList<>(imagePaths.size());
-        List<String> recordedPaths = new ArrayList<>(imagePaths.size());
-
-        try (EmbeddingService service = new EmbeddingService(djlDevice)) {
-            ImageFactory factory = ImageFactory.getInstance();
-            for (int i = 0; i < imagePaths.size(); i += batchSize) {
-                int end = Math.min(imagePaths.size(), i + batchSize);
-                List<Image> batch = new ArrayList<>(end - i);
-                for (int j = i; j < end; j++) {
-                    Path path = imagePaths.get(j);
-                    batch.add(factory.fromFile(path));
-                    recordedPaths.add(path.toString());
+        configureOffline(offline);
+        BatchSizeTuner tuner = "auto".equalsIgnoreCase(batchSize) ? new BatchSizeTuner(maxBatchSize) : null;
+        int fixedBatchSize = tuner == null ? parseBatchSize(batchSize) : 0;
+
+        Predicate<Path> owned = partition == null ? path -> true : path -> partition.owns(input, path);
+        try (FrameWatcher watcher = watch ? new FrameWatcher(input, watchSettleMillis) : null;
+             ArchiveCompressor compressor = archive ? new ArchiveCompressor(archiveThreads > 0 ? archiveThreads
+                 : ArchiveCompressor.defaultThreads(), archiveLevel, archiveChunkRows) : null;
+             ImagePathLoader.Scan imagePaths = ImagePathLoader.scan(input, order, owned)) {
+            if (!watch && !imagePaths.hasNext()) {
+                throw new IllegalArgumentException(partition == null ? "No images found to embed."
+                    : "No images found to embed in shard " + partition + ".");
+            }
+            EmbeddingSink sink = openSink(compressor);
+            List<EmbeddingSink> backboneSinks = new ArrayList<>(backboneSpecs.size() - 1);
+            try (sink;
+                 BackboneOutputs backboneOutputs = new BackboneOutputs(backboneSinks);
+                 EmbeddingCache cache = cacheEnabled() ? openCache() : null;
+                 EmbeddingService service = new EmbeddingService(djlDevice, backboneSpecs, predictors, interopThreads,
+                     intraopThreads)) {
+                for (BackboneSpec spec : backboneSpecs.subList(1, backboneSpecs.size())) {
+                    backboneOutputs.sinks().add(new SingleFileSink(spec.outputFor(output), precision, compressor));
                 }
-                embeddings.addAll(service.embedBatch(batch));
+                EmbeddingPipeline pipeline = new EmbeddingPipeline(service,
+                    tuner == null ? fixedBatchSize : tuner.maxBatchSize(), tuner, cache, fusedPreprocess, tiles, dedup,
+                    subsampleDecode);
+                // Batch size auto warms up with single images and leaves the rest to its probing batches.
+                service.warmUp(tuner == null ? fixedBatchSize : 1, warmupBatches, fusedPreprocess || tiles != null);
+                printStartup(service, jvmStartupMillis);
+                try (RunMonitor monitor = new RunMonitor(pipeline, service, progressSeconds, jvmStartupMillis)) {
+                    long existingRows = sink.rowCount();
+                    long start = System.nanoTime();
+                    pipeline.run(watch ? unseen(imagePaths, (SingleFileSink) sink) : imagePaths, sink, backboneSinks);
+                    printThroughput(service, pipeline, sink.rowCount() - existingRows, System.nanoTime() - start);
+                    if (service.backboneCount() > 1) {
+                        for (int i = 0; i < service.backboneCount(); i++) {
+                            System.out.println(service.backboneSummary(i));
+                        }
+                    }
+                    sink.finish();
+                    backboneOutputs.finish();
+                    if (sink instanceof ReducingSink reducing) {
+                        System.out.println(reducing.summary());
+                    }
+                    if (dedup != null) {
+                        System.out.println(dedup.summary());
+                    }
+                    if (tiles != null) {
+                        PipelineMetrics metrics = pipeline.metrics();
+                        System.out.printf(Locale.ROOT, "Tiles: embedded %d of %d (%.1f%% skipped as empty)%n",
+                            metrics.tilesKept(), metrics.tilesScanned(), metrics.tilesScanned() == 0 ? 0.0
+                                : 100.0 * (metrics.tilesScanned() - metrics.tilesKept()) / metrics.tilesScanned());
+                    }
+                    if (cache != null) {
+                        System.out.printf("Reused %d cached embeddings, embedded %d new or modified images%n",
+                            cache.hits(), cache.misses());
+                    }
+                    Report report = () -> {
+                        if (metricsJson != null) {
+                            monitor.writeReport(metricsJson, settings(service, pipeline), cache, dedup,
+                                sink instanceof ReducingSink reducing ? reducing : null);
+                        }
+                    };
+                    report.write();
+                    if (metricsJson != null) {
+                        System.out.println("Wrote run metrics to " + metricsJson);
+                    }
+                    if (watcher != null) {
+                        // Refreshed after every appended batch and when watching stops.
+                        try {
+                            watch(watcher, pipeline, (SingleFileSink) sink, owned, report);
+                        } finally {
+                            report.write();
+                        }
+                    }
+                }
+            }
+            printSummary(sink);
+            for (int i = 0; i < backboneSinks.size(); i++) {
+                System.out.printf("Saved %d %s embeddings to %s%n", backboneSinks.get(i).rowCount(),
+                    backboneSpecs.get(i + 1).name(), backboneSpecs.get(i + 1).outputFor(output));
+            }
+            if (compressor != null) {
+                System.out.println(compressor.summary());
             }
         }
+        return 0;
+    }
 
-        NpyWriter.writeFloatMatrix(output, embeddings);
-        MetadataWriter.writePaths(output, recordedPaths);
+    private void watch(FrameWatcher watcher, EmbeddingPipeline pipeline, SingleFileSink sink, Predicate<Path> owned,
+                       Report report) throws Exception {
+        sink.flush();
+        System.out.printf("Watching %s for new frames (%d embeddings in %s)%n", input, sink.rowCount(), output);
+        while (!Thread.currentThread().isInterrupted()) {
+            List<Path> ready = watcher.poll();
+            ready.removeIf(path -> sink.contains(path) || !owned.test(path));
+            if (ready.isEmpty()) {
+                continue;
+            }
+            long start = System.nanoTime();
+            pipeline.run(ready.iterator(), sink);
+            sink.flush();
+            System.out.printf(Locale.ROOT, "Appended %d new frames in %.2f s (%d embeddings)%n", ready.size(),
+                (System.nanoTime() - start) / 1e9, sink.rowCount());
+            report.write();
+        }
+    }
 
-        System.out.printf("Saved %d embeddings to %s%n", recordedPaths.size(), output);
-        return 0;
+    @FunctionalInterface
+    private interface Report {
+        void write() throws IOException;
+    }
+
+    private static Iterator<Path> unseen(Iterator<Path> paths, SingleFileSink sink) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(paths, Spliterator.ORDERED), false)
+            .filter(path -> !sink.contains(path))
+            .iterator();
+    }
+
+    private Map<String, Object> settings(EmbeddingService service, EmbeddingPipeline pipeline) {
+        Map<String, Object> settings = new LinkedHashMap<>();
+        settings.put("input", input);
+        settings.put("shard", shard == null ? "all" : shard);
+        settings.put("batchSize", batchSizeSetting(pipeline));
+        settings.put("predictors", service.predictorCount());
+        settings.put("interopThreads", interopThreads);
+        settings.put("intraopThreads", intraopThreads);
+        settings.put("device", device);
+        settings.put("model", modelPath == null ? "zoo:resnet50" : modelPath);
+        settings.put("backbones", backbones.isEmpty() ? "none" : String.join("; ", backbones));
+        settings.put("warmupBatches", warmupBatches);
+        settings.put("fusedPreprocess", fusedPreprocess);
+        settings.put("subsampleDecode", subsampleDecode);
+        settings.put("precision", precision);
+        settings.put("archive", archive ? "level " + archiveLevel : "off");
+        settings.put("cache", cacheEnabled());
+        settings.put("tileSize", tileSize);
+        settings.put("dedupThreshold", dedupThreshold == null ? "off" : dedupThreshold);
+        settings.put("reduce", projectionPath != null ? projectionPath : reduce == null ? "off" : reduce);
+        return settings;
+    }
+
+    private void printSummary(EmbeddingSink sink) {
+        if (sink.quantizationStats() != null) {
+            System.out.println(sink.quantizationStats().summary(precision));
+        }
+        if (sink instanceof ReducingSink reducing) {
+            sink = reducing.reduced();
+        }
+        if (sink instanceof SequenceSink sequences) {
+            System.out.printf("Saved %d windows of %d frames to %s%n", sequences.windowCount(), sequenceLength,
+                SequenceSink.windowsPath(output));
+        }
+        if (sink instanceof ShardedSink sharded) {
+            System.out.printf("Saved %d embeddings in %d shards listed in %s%n", sink.rowCount(),
+                sharded.shardCount(), ShardManifest.pathFor(output));
+        } else {
+            System.out.printf("Saved %d embeddings to %s%n", sink.rowCount(), output);
+        }
+    }
+
+    private EmbeddingSink openSink(ArchiveCompressor compressor) throws IOException {
+        // Load the projection before any output file is truncated.
+        Projection projection = projectionPath == null ? null : Projection.load(projectionPath);
+        EmbeddingSink sink = openFrameSink(compressor);
+        try {
+            if (projection != null) {
+                return ReducingSink.apply(sink, output, projection);
+            }
+            if (reduce != null) {
+                return reducingSink(sink);
+            }
+            return sink;
+        } catch (IOException | IllegalArgumentException e) {
+            sink.close();
+            throw e;
+        }
+    }
+
+    private EmbeddingSink reducingSink(EmbeddingSink sink) {
+        int colon = reduce.indexOf(':');
+        String method = colon == -1 ? "" : reduce.substring(0, colon).toLowerCase(Locale.ROOT);
+        int dimensions;
+        try {
+            dimensions = Integer.parseInt(reduce.substring(colon + 1));
+        } catch (NumberFormatException e) {
+            dimensions = 0;
+        }
+        if (dimensions < 1 || !(method.equals("pca") || method.equals("random"))) {
+            throw new IllegalArgumentException("--reduce must be pca:N or random:N: " + reduce);
+        }
+        return method.equals("pca") ? ReducingSink.fitPca(sink, output, dimensions)
+            : ReducingSink.random(sink, output, dimensions, reduceSeed);
+    }
+
+    private EmbeddingSink openFrameSink(ArchiveCompressor compressor) throws IOException {
+        if (watch) {
+            return SingleFileSink.append(output, precision);
+        }
+        if (shardRows > 0 || shardBytes > 0) {
+            return new ShardedSink(output, precision, shardRows, shardBytes, compressor);
+        }
+        if (sequenceLength > 0) {
+            SingleFileSink frames = new SingleFileSink(output, precision, compressor);
+            try {
+                return new SequenceSink(frames, output, precision, sequenceLength, sequenceStride,
+                    Duration.ofMinutes(sequenceMaxGapMinutes), sequenceDense);
+            } catch (IOException | IllegalArgumentException e) {
+                frames.close();
+                throw e;
+            }
+        }
+        return new SingleFileSink(output, precision, compressor);
+    }
+
+    static void printStartup(EmbeddingService service, long jvmStartupMillis) {
+        System.out.printf(Locale.ROOT, "Startup: JVM %.2f s, model load %.2f s, warm-up %.2f s%n",
+            jvmStartupMillis / 1e3, service.modelLoadNanos() / 1e9, service.warmUpNanos() / 1e9);
+    }
+
+    private static int parseBatchSize(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--batch-size must be a number or 'auto': " + value);
+        }
+    }
+
+    private void printThroughput(EmbeddingService service, EmbeddingPipeline pipeline, long images,
+                                 long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        double busySeconds = service.inferenceNanos() / 1e9;
+        System.out.printf(Locale.ROOT,
+            "Throughput: %.1f images/s overall, %.1f images/s per predictor "
+                + "(predictors=%d, batch-size=%s, interop=%s, intraop=%s)%n",
+            images / seconds,
+            busySeconds == 0 ? 0.0 : service.inferredImages() / busySeconds,
+            service.predictorCount(), batchSizeSetting(pipeline), threadSetting(interopThreads),
+            threadSetting(intraopThreads));
+    }
+
+    private String batchSizeSetting(EmbeddingPipeline pipeline) {
+        return "auto".equalsIgnoreCase(batchSize) ? "auto:" + pipeline.batchSize() : batchSize;
+    }
+
+    private static String threadSetting(int threads) {
+        return threads > 0 ? Integer.toString(threads) : "default";
+    }
+
+    // The cache holds one embedding per frame, so it is off when several backbones embed each frame.
+    private boolean cacheEnabled() {
+        return !noCache && tileSize == 0 && backbones.isEmpty();
+    }
+
+    // The outputs of every backbone after the first, closed together.
+    private record BackboneOutputs(List<EmbeddingSink> sinks) implements AutoCloseable {
+        void finish() throws IOException {
+            for (EmbeddingSink sink : sinks) {
+                sink.finish();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException failure = null;
+            for (EmbeddingSink sink : sinks) {
+                try {
+                    sink.close();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private EmbeddingCache openCache() throws IOException {
+        // Subsampled decoding and fused preprocessing change the tensor the model sees, so both are part of
+        // what the cache is keyed by.
+        EmbeddingCache cache = EmbeddingCache.open(resolveCacheDir(), EmbeddingService.modelIdentity(modelPath)
+            + (subsampleDecode ? ";decode=subsampled" : "") + (fusedPreprocess ? ";preprocess=fused" : ""));
+        if (cache.wasReset()) {
+            System.out.println("Embedding cache " + resolveCacheDir() + " was built with another model, decode mode "
+                + "or preprocessing path; cleared it");
+        }
+        return cache;
+    }
+
+    private Path resolveCacheDir() {
+        if (cacheDir != null) {
+            return cacheDir;
+        }
+        String fileName = output.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        return output.resolveSibling((dot == -1 ? fileName : fileName.substring(0, dot)) + ".cache");
+    }
+
+    // Read by DJL when it resolves models and engine native libraries, so it must be set before the first load.
+    static void configureOffline(boolean offline) {
+        if (offline) {
+            System.setProperty("ai.djl.offline", "true");
+        }
     }
 
-    private static Device parseDevice(String value) {
+    static Device parseDevice(String value) {
         String normalized = value.toLowerCase(Locale.ROOT);
         if (normalized.startsWith("cuda") || normalized.startsWith("gpu")) {
             return Device.gpu();
@@ -0,0 +1,79 @@
+package dev.obrienlabs.codex.radar;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Custom JFR events; a flag check unless a recording is running.
+final class RadarEvents {
+    private RadarEvents() {
+    }
+
+    @Name("dev.obrienlabs.radar.Decode")
+    @Label("Image Decode")
+    @Category({"Radar Embed", "Pipeline"})
+    @StackTrace(false)
+    static final class Decode extends Event {
+        @Label("Path")
+        String path;
+    }
+
+    @Name("dev.obrienlabs.radar.Preprocess")
+    @Label("Image Preprocess")
+    @Description("Resize, crop and normalize of one image")
+    @Category({"Radar Embed", "Pipeline"})
+    @StackTrace(false)
+    static final class Preprocess extends Event {
+        @Label("Fused")
+        boolean fused;
+    }
+
+    @Name("dev.obrienlabs.radar.Inference")
+    @Label("Batch Inference")
+    @Category({"Radar Embed", "Pipeline"})
+    @StackTrace(false)
+    static final class Inference extends Event {
+        @Label("Batch Size")
+        int batchSize;
+    }
+
+    @Name("dev.obrienlabs.radar.Write")
+    @Label("Batch Write")
+    @Category({"Radar Embed", "Pipeline"})
+    @StackTrace(false)
+    static final class Write extends Event {
+        @Label("Rows")
+        int rows;
+    }
+
+    @Name("dev.obrienlabs.radar.Progress")
+    @Label("Run Progress")
+    @Category({"Radar Embed", "Progress"})
+    @StackTrace(false)
+    static final class Progress extends Event {
+        @Label("Images")
+        long images;
+
+        @Label("Images Per Second")
+        double imagesPerSecond;
+
+        @Label("Decoded Queue Depth")
+        int decodedQueueDepth;
+
+        @Label("Inference Queue Depth")
+        int inferenceQueueDepth;
+
+        @Label("Heap Used")
+        @DataAmount
+        long heapUsed;
+
+        @Label("Allocation Rate")
+        @Description("Bytes allocated per second since the previous progress event")
+        @DataAmount
+        long allocationRate;
+    }
+}
@@ -0,0 +1,61 @@
+package dev.obrienlabs.codex.radar;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+record RadarFileName(String station, long timestamp) {
+    static final long UNKNOWN_TIMESTAMP = Long.MAX_VALUE;
+
+    // Matches names such as KTLX20240501_123456.png, KTLX_20240501_1234.gif or n0q_202405011230.png.
+    private static final Pattern TIMESTAMP = Pattern.compile("(?<!\\d)(\\d{8})[_\\-T]?(\\d{4}(?:\\d{2})?)(?!\\d)");
+    private static final Pattern STATION = Pattern.compile("^([A-Za-z]{4})(?=[_\\-]?\\d)");
+    private static final Pattern STATION_DIRECTORY = Pattern.compile("^[A-Z]{4}$");
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("uuuuMMddHHmmss");
+
+    static RadarFileName parse(Path path) {
+        String name = path.getFileName().toString();
+        Matcher station = STATION.matcher(name);
+        Matcher timestamp = TIMESTAMP.matcher(name);
+        long parsed = UNKNOWN_TIMESTAMP;
+        if (timestamp.find()) {
+            String time = timestamp.group(2);
+            parsed = Long.parseLong(timestamp.group(1) + time + (time.length() == 4 ? "00" : ""));
+        }
+        return new RadarFileName(station.find() ? station.group(1).toUpperCase(Locale.ROOT) : stationDirectory(path),
+            parsed);
+    }
+
+    private static String stationDirectory(Path path) {
+        for (Path parent = path.getParent(); parent != null && parent.getFileName() != null;
+             parent = parent.getParent()) {
+            String name = parent.getFileName().toString();
+            if (STATION_DIRECTORY.matcher(name).matches()) {
+                return name;
+            }
+        }
+        return "";
+    }
+
+    boolean hasTimestamp() {
+        return timestamp != UNKNOWN_TIMESTAMP;
+    }
+
+    // Radar products are stamped in UTC; null when the name carries no valid date and time.
+    Instant instant() {
+        if (!hasTimestamp()) {
+            return null;
+        }
+        try {
+            return LocalDateTime.parse(Long.toString(timestamp), TIMESTAMP_FORMAT).toInstant(ZoneOffset.UTC);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
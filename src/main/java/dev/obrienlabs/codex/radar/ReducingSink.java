@@ -0,0 +1,264 @@
+package dev.obrienlabs.codex.radar;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Projects embeddings to fewer dimensions before the wrapped sink stores them. A saved or random projection
+// streams rows straight through. A PCA fit cannot project anything until every row has been seen, so it
+// accumulates the covariance while spooling full rows to <base>.unreduced, then replays the spool through
+// the fitted projection in finish().
+final class ReducingSink implements EmbeddingSink {
+    private static final int REPLAY_BATCH = 256;
+
+    private final EmbeddingSink reduced;
+    private final Path projectionPath;
+    private final int dimensions;
+    private final long seed;
+    private final Path spoolPath;
+    private Projection projection;
+    private Projection.Covariance covariance;
+    private DataOutputStream spool;
+    private long spooled;
+    // Sums over this run's rows before and after projection, for the share of variance kept.
+    private double[] inputSums;
+    private double inputSquares;
+    private double[] outputSums;
+    private double outputSquares;
+    private long projected;
+
+    private ReducingSink(EmbeddingSink reduced, Path output, Projection projection, int dimensions, long seed,
+                         boolean fit) {
+        this.reduced = reduced;
+        this.projectionPath = Projection.pathFor(output);
+        this.projection = projection;
+        this.dimensions = dimensions;
+        this.seed = seed;
+        this.spoolPath = fit ? spoolPath(output) : null;
+    }
+
+    // Reduces with a projection from an earlier run, copied next to this output for search.
+    static ReducingSink apply(EmbeddingSink reduced, Path output, Projection projection) throws IOException {
+        projection.save(Projection.pathFor(output));
+        return new ReducingSink(reduced, output, projection, projection.outputDimension(), 0, false);
+    }
+
+    // Creates a seeded random projection once the first row reveals the input dimension.
+    static ReducingSink random(EmbeddingSink reduced, Path output, int dimensions, long seed) {
+        return new ReducingSink(reduced, output, null, dimensions, seed, false);
+    }
+
+    static ReducingSink fitPca(EmbeddingSink reduced, Path output, int dimensions) {
+        return new ReducingSink(reduced, output, null, dimensions, 0, true);
+    }
+
+    static Path spoolPath(Path output) {
+        String fileName = output.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        return output.resolveSibling((dot == -1 ? fileName : fileName.substring(0, dot)) + ".unreduced");
+    }
+
+    EmbeddingSink reduced() {
+        return reduced;
+    }
+
+    @Override
+    public void write(List<Path> paths, List<FileFingerprint> fingerprints, List<TileGrid.Tile> tiles,
+                      List<float[]> embeddings) throws IOException {
+        if (embeddings.isEmpty()) {
+            return;
+        }
+        if (spoolPath == null) {
+            if (projection == null) {
+                projection = Projection.random(embeddings.get(0).length, dimensions, seed);
+                projection.save(projectionPath);
+            }
+            forward(paths, fingerprints, tiles, embeddings);
+            return;
+        }
+        if (spool == null) {
+            covariance = new Projection.Covariance(embeddings.get(0).length);
+            spool = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spoolPath), 1 << 16));
+        }
+        for (int i = 0; i < paths.size(); i++) {
+            float[] embedding = embeddings.get(i);
+            covariance.add(embedding);
+            writeRow(spool, paths.get(i), fingerprints.get(i), tiles.get(i), embedding);
+        }
+        spooled += paths.size();
+    }
+
+    private void forward(List<Path> paths, List<FileFingerprint> fingerprints, List<TileGrid.Tile> tiles,
+                         List<float[]> embeddings) throws IOException {
+        if (inputSums == null) {
+            inputSums = new double[projection.inputDimension()];
+            outputSums = new double[projection.outputDimension()];
+        }
+        List<float[]> rows = new ArrayList<>(embeddings.size());
+        for (float[] embedding : embeddings) {
+            float[] row = projection.project(embedding);
+            inputSquares += accumulate(inputSums, embedding);
+            outputSquares += accumulate(outputSums, row);
+            rows.add(row);
+        }
+        projected += rows.size();
+        reduced.write(paths, fingerprints, tiles, rows);
+    }
+
+    private static double accumulate(double[] sums, float[] row) {
+        double squares = 0;
+        for (int i = 0; i < row.length; i++) {
+            sums[i] += row[i];
+            squares += (double) row[i] * row[i];
+        }
+        return squares;
+    }
+
+    // Fits and saves the PCA and replays the spooled rows, then finishes the wrapped sink.
+    @Override
+    public void finish() throws IOException {
+        if (spool != null) {
+            replay();
+        }
+        reduced.finish();
+    }
+
+    private void replay() throws IOException {
+        spool.close();
+        spool = null;
+        projection = covariance.fit(dimensions);
+        covariance = null;
+        projection.save(projectionPath);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(spoolPath),
+            1 << 16))) {
+            List<Path> paths = new ArrayList<>(REPLAY_BATCH);
+            List<FileFingerprint> fingerprints = new ArrayList<>(REPLAY_BATCH);
+            List<TileGrid.Tile> tiles = new ArrayList<>(REPLAY_BATCH);
+            List<float[]> embeddings = new ArrayList<>(REPLAY_BATCH);
+            int dimension = projection.inputDimension();
+            while (spooled > 0) {
+                readRow(in, dimension, paths, fingerprints, tiles, embeddings);
+                spooled--;
+                if (paths.size() == REPLAY_BATCH || spooled == 0) {
+                    forward(paths, fingerprints, tiles, embeddings);
+                    paths.clear();
+                    fingerprints.clear();
+                    tiles.clear();
+                    embeddings.clear();
+                }
+            }
+        } catch (EOFException e) {
+            throw new IOException("Spooled embeddings in " + spoolPath + " are truncated.", e);
+        }
+        Files.deleteIfExists(spoolPath);
+    }
+
+    private static void writeRow(DataOutputStream out, Path path, FileFingerprint fingerprint, TileGrid.Tile tile,
+                                 float[] embedding) throws IOException {
+        byte[] name = path.toString().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(name.length);
+        out.write(name);
+        out.writeLong(fingerprint.size());
+        out.writeLong(fingerprint.modifiedMillis());
+        byte[] hash = fingerprint.contentHash();
+        out.writeBoolean(hash != null);
+        if (hash != null) {
+            out.write(hash);
+        }
+        out.writeInt(tile.x());
+        out.writeInt(tile.y());
+        out.writeInt(tile.width());
+        out.writeInt(tile.height());
+        for (float value : embedding) {
+            out.writeFloat(value);
+        }
+    }
+
+    private static void readRow(DataInputStream in, int dimension, List<Path> paths,
+                                List<FileFingerprint> fingerprints, List<TileGrid.Tile> tiles,
+                                List<float[]> embeddings) throws IOException {
+        byte[] name = new byte[in.readInt()];
+        in.readFully(name);
+        paths.add(Path.of(new String(name, StandardCharsets.UTF_8)));
+        long size = in.readLong();
+        long modifiedMillis = in.readLong();
+        byte[] hash = null;
+        if (in.readBoolean()) {
+            hash = new byte[FileFingerprint.HASH_BYTES];
+            in.readFully(hash);
+        }
+        fingerprints.add(new FileFingerprint(size, modifiedMillis, hash));
+        tiles.add(new TileGrid.Tile(in.readInt(), in.readInt(), in.readInt(), in.readInt()));
+        float[] embedding = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            embedding[i] = in.readFloat();
+        }
+        embeddings.add(embedding);
+    }
+
+    Projection projection() {
+        return projection;
+    }
+
+    // Share of this run's variance that survived the projection; rows are orthonormal, so nothing is rescaled.
+    double retainedVariance() {
+        if (projected < 2) {
+            return Double.NaN;
+        }
+        double input = variance(inputSums, inputSquares);
+        return input <= 0 ? Double.NaN : variance(outputSums, outputSquares) / input;
+    }
+
+    private double variance(double[] sums, double squares) {
+        double meanSquares = 0;
+        for (double sum : sums) {
+            meanSquares += (sum / projected) * (sum / projected);
+        }
+        return squares / projected - meanSquares;
+    }
+
+    String summary() {
+        if (projection == null) {
+            return "Reduction: no embeddings to reduce";
+        }
+        return String.format(Locale.ROOT, "Reduction: %s; kept %.1f%% of this run's variance; projection saved to %s",
+            projection.describe(), 100 * retainedVariance(), projectionPath);
+    }
+
+    @Override
+    public long rowCount() {
+        return reduced.rowCount() + spooled;
+    }
+
+    @Override
+    public QuantizationStats quantizationStats() {
+        return reduced.quantizationStats();
+    }
+
+    // Releases the wrapped sink and the spool; only finish() fits and writes the reduced rows.
+    @Override
+    public void close() throws IOException {
+        try {
+            reduced.close();
+        } finally {
+            try {
+                if (spool != null) {
+                    spool.close();
+                }
+            } finally {
+                if (spoolPath != null) {
+                    Files.deleteIfExists(spoolPath);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package dev.obrienlabs.codex.radar;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Progress lines, JFR progress events and the run report.
+final class RunMonitor implements AutoCloseable {
+    private static final double MIB = 1024.0 * 1024.0;
+
+    private final EmbeddingPipeline pipeline;
+    private final EmbeddingService service;
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final com.sun.management.ThreadMXBean threads;
+    private final ScheduledExecutorService scheduler;
+    private final long startNanos = System.nanoTime();
+    private final long startAllocated;
+    private final AtomicLong peakHeapUsed = new AtomicLong();
+    private final long jvmStartupMillis;
+    private long lastNanos = startNanos;
+    private long lastImages;
+    private long lastAllocated;
+
+    // jvmStartupMillis: JVM uptime when the command began.
+    RunMonitor(EmbeddingPipeline pipeline, EmbeddingService service, long progressSeconds, long jvmStartupMillis) {
+        this.pipeline = pipeline;
+        this.service = service;
+        this.jvmStartupMillis = jvmStartupMillis;
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        this.threads = bean instanceof com.sun.management.ThreadMXBean sun && sun.isThreadAllocatedMemorySupported()
+            ? sun : null;
+        this.startAllocated = allocatedBytes();
+        this.lastAllocated = startAllocated;
+        sampleHeap();
+        if (progressSeconds > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable ->
+                Thread.ofPlatform().name("progress").daemon().unstarted(runnable));
+            scheduler.scheduleAtFixedRate(this::progress, progressSeconds, progressSeconds, TimeUnit.SECONDS);
+        } else {
+            scheduler = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    void writeReport(Path path, Map<String, Object> settings, EmbeddingCache cache, FrameDeduplicator dedup,
+                     ReducingSink reduction) throws IOException {
+        sampleHeap();
+        PipelineMetrics metrics = pipeline.metrics();
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        long images = metrics.framesWritten();
+        long allocated = allocatedBytes() - startAllocated;
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"settings\": {");
+        boolean first = true;
+        for (Map.Entry<String, Object> setting : settings.entrySet()) {
+            json.append(first ? "" : ", ").append('"').append(setting.getKey()).append("\": ");
+            Object value = setting.getValue();
+            if (value instanceof Number || value instanceof Boolean) {
+                json.append(value);
+            } else {
+                json.append('"').append(MetadataWriter.escape(String.valueOf(value))).append('"');
+            }
+            first = false;
+        }
+        json.append("},\n");
+        json.append(format("  \"elapsedSeconds\": %.3f,\n  \"images\": %d,\n  \"imagesPerSecond\": %.2f,\n",
+            seconds, images, images / seconds));
+        json.append(format("  \"batches\": %d,\n  \"meanBatchFrames\": %.2f,\n  \"batchFill\": %.4f,\n",
+            metrics.batches(), metrics.meanBatchFrames(), metrics.batchFill()));
+        LatencyHistogram preprocess = metrics.preprocess().count() > 0 ? metrics.preprocess()
+            : service.preprocessLatency();
+        json.append("  \"stages\": {\n");
+        json.append("    \"decode\": ").append(stage(metrics.decode())).append(",\n");
+        json.append("    \"preprocess\": ").append(stage(preprocess)).append(",\n");
+        json.append("    \"inference\": ").append(stage(service.inferenceLatency())).append(",\n");
+        json.append("    \"write\": ").append(stage(metrics.write())).append("\n  },\n");
+        json.append("  \"queues\": {\n");
+        json.append("    \"decoded\": ").append(queue(metrics.decodedQueue())).append(",\n");
+        json.append("    \"inference\": ").append(queue(metrics.inferenceQueue())).append("\n  },\n");
+        json.append(format("  \"memory\": {\"heapUsedBytes\": %d, \"peakHeapUsedBytes\": %d, \"heapMaxBytes\": %d, "
+                + "\"allocatedBytes\": %d, \"allocatedBytesPerSecond\": %.0f}",
+            memory.getHeapMemoryUsage().getUsed(), peakHeapUsed.get(), memory.getHeapMemoryUsage().getMax(),
+            allocated, allocated / seconds));
+        json.append(format(",\n  \"startup\": {\"jvmSeconds\": %.3f, \"modelLoadSeconds\": %.3f, "
+                + "\"warmUpSeconds\": %.3f}",
+            jvmStartupMillis / 1e3, service.modelLoadNanos() / 1e9, service.warmUpNanos() / 1e9));
+        if (cache != null) {
+            json.append(format(",\n  \"cache\": {\"hits\": %d, \"misses\": %d}", cache.hits(), cache.misses()));
+        }
+        if (dedup != null) {
+            json.append(format(",\n  \"dedup\": {\"compared\": %d, \"reused\": %d, \"identical\": %d}",
+                dedup.compared(), dedup.reused(), dedup.identical()));
+        }
+        if (reduction != null && reduction.projection() != null) {
+            Projection projection = reduction.projection();
+            json.append(format(",\n  \"reduction\": {\"method\": \"%s\", \"inputDimensions\": %d, "
+                    + "\"dimensions\": %d, \"explainedVariance\": %s, \"retainedVariance\": %s}",
+                projection.method().name().toLowerCase(Locale.ROOT), projection.inputDimension(),
+                projection.outputDimension(), number(projection.explainedVariance()),
+                number(reduction.retainedVariance())));
+        }
+        if (metrics.tilesScanned() > 0) {
+            json.append(format(",\n  \"tiles\": {\"scanned\": %d, \"embedded\": %d}", metrics.tilesScanned(),
+                metrics.tilesKept()));
+        }
+        json.append("\n}\n");
+
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write(json.toString());
+        }
+    }
+
+    private synchronized void progress() {
+        long now = System.nanoTime();
+        long images = pipeline.metrics().framesWritten();
+        long allocated = allocatedBytes();
+        double seconds = (now - lastNanos) / 1e9;
+        double rate = (images - lastImages) / seconds;
+        long allocationRate = (long) ((allocated - lastAllocated) / seconds);
+        long heapUsed = sampleHeap();
+        PipelineMetrics metrics = pipeline.metrics();
+
+        RadarEvents.Progress event = new RadarEvents.Progress();
+        event.images = images;
+        event.imagesPerSecond = rate;
+        event.decodedQueueDepth = metrics.decodedQueue().current();
+        event.inferenceQueueDepth = metrics.inferenceQueue().current();
+        event.heapUsed = heapUsed;
+        event.allocationRate = allocationRate;
+        event.commit();
+
+        System.out.println(format("Progress: %d images, %.1f images/s, decode p50 %.1fms, inference p50 %.1fms "
+                + "p99 %.1fms, queues %d/%d, heap %.0f MiB, alloc %.0f MiB/s",
+            images, rate, metrics.decode().percentileMillis(50), service.inferenceLatency().percentileMillis(50),
+            service.inferenceLatency().percentileMillis(99), event.decodedQueueDepth, event.inferenceQueueDepth,
+            heapUsed / MIB, allocationRate / MIB));
+        lastNanos = now;
+        lastImages = images;
+        lastAllocated = allocated;
+    }
+
+    private long sampleHeap() {
+        long used = memory.getHeapMemoryUsage().getUsed();
+        peakHeapUsed.accumulateAndGet(used, Math::max);
+        return used;
+    }
+
+    private long allocatedBytes() {
+        return threads == null ? 0 : Math.max(0, threads.getTotalThreadAllocatedBytes());
+    }
+
+    private static String stage(LatencyHistogram histogram) {
+        return format("{\"count\": %d, \"meanMs\": %.3f, \"p50Ms\": %.3f, \"p99Ms\": %.3f, \"maxMs\": %.3f}",
+            histogram.count(), histogram.meanMillis(), histogram.percentileMillis(50),
+            histogram.percentileMillis(99), histogram.maxMillis());
+    }
+
+    private static String queue(PipelineMetrics.QueueDepth depth) {
+        return format("{\"meanDepth\": %.2f, \"maxDepth\": %d}", depth.mean(), depth.max());
+    }
+
+    // JSON has no NaN, so undefined ratios are written as null.
+    private static String number(double value) {
+        return Double.isNaN(value) ? "null" : format("%.4f", value);
+    }
+
+    private static String format(String pattern, Object... args) {
+        return String.format(Locale.ROOT, pattern, args);
+    }
+}
@@ -0,0 +1,106 @@
+package dev.obrienlabs.codex.radar;
+
+import ai.djl.Device;
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.ImageFactory;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Model.CommandSpec;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.ParameterException;
+import picocli.CommandLine.Parameters;
+import picocli.CommandLine.Spec;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+
+@Command(name = "search", mixinStandardHelpOptions = true,
+    description = "Find the stored radar frames most similar to a query image.")
+final class SearchCommand implements Callable<Integer> {
+
+    @Spec
+    private CommandSpec spec;
+
+    @Parameters(index = "0", description = "Query radar image.")
+    private Path query;
+
+    @Option(names = "--embeddings", description = "Embedding .npy file with an index built by 'index'.",
+        defaultValue = "embeddings.npy")
+    private Path embeddings;
+
+    @Option(names = "--k", description = "Number of neighbours to return.", defaultValue = "10")
+    private int k;
+
+    @Option(names = "--ef-search", description = "Candidate list size; larger is slower but more accurate.",
+        defaultValue = "64")
+    private int efSearch;
+
+    @Option(names = "--recall", description = "Also run an exact search and report recall against it.")
+    private boolean recall;
+
+    @Option(names = "--device", description = "Device to run inference on (cpu or cuda).", defaultValue = "cpu")
+    private String device;
+
+    @Option(names = "--model", description = "Local TorchScript file or directory used to embed the query "
+        + "(must match the model that produced the embeddings).")
+    private Path modelPath;
+
+    @Option(names = "--offline", description = "Never download models or engine libraries.")
+    private boolean offline;
+
+    @Option(names = "--subsample-decode", description = "Decode the query the way radar-embed --subsample-decode "
+        + "decodes frames; use it when the stored vectors were embedded that way.")
+    private boolean subsampleDecode;
+
+    @Override
+    public Integer call() throws Exception {
+        if (k < 1 || efSearch < 1) {
+            throw new ParameterException(spec.commandLine(), "--k and --ef-search must be positive: " + k + ", "
+                + efSearch);
+        }
+        if (!Files.exists(query)) {
+            throw new IllegalArgumentException("Query image not found: " + query);
+        }
+        Path indexPath = HnswIndex.pathFor(embeddings);
+        if (!Files.exists(indexPath)) {
+            throw new IllegalArgumentException("No index found at " + indexPath + "; run 'index " + embeddings
+                + "' first.");
+        }
+        EmbeddingStore store = EmbeddingStore.open(embeddings);
+        HnswIndex index = HnswIndex.load(indexPath, store);
+
+        RadarEmbed.configureOffline(offline);
+        float[] embedding;
+        try (EmbeddingService service = new EmbeddingService(RadarEmbed.parseDevice(device), modelPath)) {
+            Image image = ImageDecoder.image(ImageFactory.getInstance(), Files.readAllBytes(query),
+                subsampleDecode ? service.largestResize() : 0);
+            embedding = service.embedBatch(List.of(image)).get(0);
+        }
+        // Stores written with --reduce hold projected rows; the query must be projected the same way.
+        Path projectionPath = Projection.pathFor(embeddings);
+        if (Files.exists(projectionPath)) {
+            embedding = Projection.load(projectionPath).project(embedding);
+        }
+
+        long start = System.nanoTime();
+        List<HnswIndex.Result> results = index.search(embedding, k, efSearch);
+        double searchMillis = (System.nanoTime() - start) / 1e6;
+        for (HnswIndex.Result result : results) {
+            String label = store.hasPathIndex() ? store.path(result.row()) : "row " + result.row();
+            System.out.printf(Locale.ROOT, "%.4f  %s%n", result.similarity(), label);
+        }
+        System.out.printf(Locale.ROOT, "Searched %d embeddings in %.3f ms%n", index.size(), searchMillis);
+
+        if (recall) {
+            start = System.nanoTime();
+            List<HnswIndex.Result> exact = HnswIndex.exactSearch(store, embedding, k);
+            double exactMillis = (System.nanoTime() - start) / 1e6;
+            System.out.printf(Locale.ROOT, "Recall@%d vs exact search: %.2f (exact search took %.3f ms)%n",
+                k, exact.isEmpty() ? 1.0 : (double) IndexCommand.overlap(results, exact) / exact.size(),
+                exactMillis);
+        }
+        return 0;
+    }
+}
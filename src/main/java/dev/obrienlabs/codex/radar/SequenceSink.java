@@ -0,0 +1,148 @@
+package dev.obrienlabs.codex.radar;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.List;
+
+// Tracks sliding windows of consecutive frames per station while the wrapped sink stores each frame once.
+// Frames must arrive ordered by station and time, so a window's frames are adjacent rows of the output and
+// <base>.windows.npy only needs each window's first row; <base>.sequences.npy optionally holds copies.
+final class SequenceSink implements EmbeddingSink {
+    private final EmbeddingSink frames;
+    private final int length;
+    private final int stride;
+    private final Duration maxGap;
+    private final NpyWriter windows;
+    private final NpyWriter sequences;
+    // The most recent frames of the current run; older ones are evicted as the window slides.
+    private final ArrayDeque<float[]> recent;
+    private String station;
+    private Instant previous;
+    private long runLength;
+
+    SequenceSink(EmbeddingSink frames, Path output, EmbeddingPrecision precision, int length, int stride,
+                 Duration maxGap, boolean dense) throws IOException {
+        if (length < 2) {
+            throw new IllegalArgumentException("Sequence length must be at least 2: " + length);
+        }
+        if (stride < 1) {
+            throw new IllegalArgumentException("Sequence stride must be positive: " + stride);
+        }
+        if (maxGap.isNegative()) {
+            throw new IllegalArgumentException("Sequence gap limit must not be negative: " + maxGap);
+        }
+        this.frames = frames;
+        this.length = length;
+        this.stride = stride;
+        this.maxGap = maxGap;
+        this.recent = new ArrayDeque<>(length);
+        this.windows = NpyWriter.openIndex(windowsPath(output));
+        try {
+            this.sequences = dense ? NpyWriter.open(sequencesPath(output), precision, length) : null;
+        } catch (IOException e) {
+            windows.close();
+            throw e;
+        }
+    }
+
+    static Path windowsPath(Path output) {
+        return replaceExtension(output, ".windows.npy");
+    }
+
+    static Path sequencesPath(Path output) {
+        return replaceExtension(output, ".sequences.npy");
+    }
+
+    private static Path replaceExtension(Path path, String extension) {
+        String fileName = path.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        return path.resolveSibling((dot == -1 ? fileName : fileName.substring(0, dot)) + extension);
+    }
+
+    @Override
+    public void write(List<Path> paths, List<FileFingerprint> fingerprints, List<TileGrid.Tile> tiles,
+                      List<float[]> embeddings) throws IOException {
+        long firstRow = frames.rowCount();
+        frames.write(paths, fingerprints, tiles, embeddings);
+        for (int i = 0; i < paths.size(); i++) {
+            RadarFileName name = RadarFileName.parse(paths.get(i));
+            Instant time = name.instant();
+            if (!continues(name.station(), time)) {
+                recent.clear();
+                runLength = 0;
+            }
+            station = name.station();
+            previous = time;
+            if (time == null) {
+                // Frames without a usable timestamp cannot be placed in a sequence.
+                continue;
+            }
+            if (recent.size() == length) {
+                recent.removeFirst();
+            }
+            recent.addLast(embeddings.get(i));
+            runLength++;
+            if (runLength >= length && (runLength - length) % stride == 0) {
+                windows.writeIndex(firstRow + i - length + 1);
+                if (sequences != null) {
+                    sequences.writeRow(concatenate());
+                }
+            }
+        }
+    }
+
+    private boolean continues(String nextStation, Instant time) {
+        if (time == null || previous == null || !nextStation.equals(station) || time.isBefore(previous)) {
+            return false;
+        }
+        return maxGap.isZero() || Duration.between(previous, time).compareTo(maxGap) <= 0;
+    }
+
+    private float[] concatenate() {
+        int dimension = recent.peekFirst().length;
+        float[] window = new float[length * dimension];
+        int offset = 0;
+        for (float[] embedding : recent) {
+            System.arraycopy(embedding, 0, window, offset, dimension);
+            offset += dimension;
+        }
+        return window;
+    }
+
+    long windowCount() {
+        return windows.rowCount();
+    }
+
+    @Override
+    public long rowCount() {
+        return frames.rowCount();
+    }
+
+    @Override
+    public QuantizationStats quantizationStats() {
+        return frames.quantizationStats();
+    }
+
+    @Override
+    public void finish() throws IOException {
+        frames.finish();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            frames.close();
+        } finally {
+            try {
+                windows.close();
+            } finally {
+                if (sequences != null) {
+                    sequences.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package dev.obrienlabs.codex.radar;
+
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.ImageFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Command(name = "serve", mixinStandardHelpOptions = true,
+    description = "Keep the model loaded and embed images posted to a local HTTP endpoint.")
+final class ServeCommand implements Callable<Integer> {
+
+    @Option(names = "--host", description = "Address to bind (default: ${DEFAULT-VALUE}).", defaultValue = "127.0.0.1")
+    private String host;
+
+    @Option(names = "--port", description = "Port to listen on (default: ${DEFAULT-VALUE}).", defaultValue = "8080")
+    private int port;
+
+    @Option(names = "--max-batch-size", description = "Most requests coalesced into one inference call.",
+        defaultValue = "16")
+    private int maxBatchSize;
+
+    @Option(names = "--max-wait-ms", description = "Longest a request waits for others to join its batch.",
+        defaultValue = "5")
+    private long maxWaitMillis;
+
+    @Option(names = "--device", description = "Device to run inference on (cpu or cuda).", defaultValue = "cpu")
+    private String device;
+
+    @Option(names = "--predictors", description = "Number of predictors running batches concurrently.",
+        defaultValue = "1")
+    private int predictors;
+
+    @Option(names = "--interop-threads", description = "Engine inter-op thread count (0 = engine default).",
+        defaultValue = "0")
+    private int interopThreads;
+
+    @Option(names = "--intraop-threads", description = "Engine intra-op thread count (0 = engine default).",
+        defaultValue = "0")
+    private int intraopThreads;
+
+    @Option(names = "--model", description = "Load a local TorchScript file, or a directory holding one, "
+        + "instead of the ResNet-50 from the DJL model zoo.")
+    private Path modelPath;
+
+    @Option(names = "--offline", description = "Never download models or engine libraries; use local and "
+        + "cached files only.")
+    private boolean offline;
+
+    @Option(names = "--warmup-batches", description = "Synthetic batches of --max-batch-size run per predictor "
+        + "before the endpoint opens (default: ${DEFAULT-VALUE}).", defaultValue = "2")
+    private int warmupBatches;
+
+    @Option(names = "--projection", description = "Return embeddings reduced by a projection saved with "
+        + "'--reduce', matching the stored vectors.")
+    private Path projectionPath;
+
+    @Option(names = "--subsample-decode", description = "Decode posted images the way radar-embed "
+        + "--subsample-decode decodes frames; use it when the stored vectors were embedded that way.")
+    private boolean subsampleDecode;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private Projection projection;
+    private ImageFactory factory;
+    private int decodeSize;
+    private MicroBatcher batcher;
+
+    @Override
+    public Integer call() throws Exception {
+        long jvmStartupMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        RadarEmbed.configureOffline(offline);
+        projection = projectionPath == null ? null : Projection.load(projectionPath);
+        factory = ImageFactory.getInstance();
+        CountDownLatch stopped = new CountDownLatch(1);
+        try (EmbeddingService service = new EmbeddingService(RadarEmbed.parseDevice(device), modelPath, predictors,
+                 interopThreads, intraopThreads);
+             MicroBatcher microBatcher = new MicroBatcher(service, maxBatchSize, maxWaitMillis);
+             ExecutorService handlers = Executors.newVirtualThreadPerTaskExecutor()) {
+            batcher = microBatcher;
+            decodeSize = subsampleDecode ? service.largestResize() : 0;
+            // The first requests would otherwise pay for engine initialisation and compilation.
+            service.warmUp(maxBatchSize, warmupBatches, false);
+            RadarEmbed.printStartup(service, jvmStartupMillis);
+            HttpServer server = HttpServer.create(new InetSocketAddress(host, port), 0);
+            server.setExecutor(handlers);
+            server.createContext("/embed", this::embed);
+            server.createContext("/stats", this::stats);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop(1);
+                System.out.println("Latency: " + latency.summary());
+                stopped.countDown();
+            }));
+            server.start();
+            System.out.printf("Serving embeddings on http://%s:%d/embed (max-batch-size=%d, max-wait-ms=%d)%n",
+                host, server.getAddress().getPort(), maxBatchSize, maxWaitMillis);
+            stopped.await();
+        }
+        return 0;
+    }
+
+    private void embed(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "{\"error\":\"POST an image body\"}");
+                return;
+            }
+            Image image;
+            try {
+                image = ImageDecoder.image(factory, exchange.getRequestBody().readAllBytes(), decodeSize);
+            } catch (IOException e) {
+                respond(exchange, 400, "{\"error\":\"" + MetadataWriter.escape(String.valueOf(e.getMessage())) + "\"}");
+                return;
+            }
+            float[] embedding;
+            try {
+                embedding = batcher.submit(image).get();
+                if (projection != null) {
+                    embedding = projection.project(embedding);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                respond(exchange, 503, "{\"error\":\"interrupted\"}");
+                return;
+            } catch (ExecutionException e) {
+                respond(exchange, 500, "{\"error\":\""
+                    + MetadataWriter.escape(String.valueOf(e.getCause().getMessage())) + "\"}");
+                return;
+            }
+            StringBuilder json = new StringBuilder(embedding.length * 12).append("{\"embedding\":[");
+            for (int i = 0; i < embedding.length; i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append(embedding[i]);
+            }
+            respond(exchange, 200, json.append("]}").toString());
+            latency.recordNanos(System.nanoTime() - start);
+        }
+    }
+
+    private void stats(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            respond(exchange, 200, String.format(Locale.ROOT,
+                "{\"requests\":%d,\"batches\":%d,\"meanBatchSize\":%.2f,\"meanMs\":%.3f,\"p50Ms\":%.3f,"
+                    + "\"p99Ms\":%.3f,\"maxMs\":%.3f}",
+                latency.count(), batcher.batches(), batcher.meanBatchSize(), latency.meanMillis(),
+                latency.percentileMillis(50), latency.percentileMillis(99), latency.maxMillis()));
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package dev.obrienlabs.codex.radar;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+final class ShardManifest {
+    private ShardManifest() {
+    }
+
+    record Shard(String file, String metadata, long rowStart, long rowEnd, String firstPath, String lastPath,
+                 String sha256, List<Sidecar> sidecars) {
+    }
+
+    // A file written beside a shard's .npy, such as its .meta, .idx or .npc.
+    record Sidecar(String file, String sha256) {
+    }
+
+    static Path pathFor(Path output) {
+        String fileName = output.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        return output.resolveSibling((dot == -1 ? fileName : fileName.substring(0, dot)) + ".manifest.json");
+    }
+
+    static void write(Path manifest, EmbeddingPrecision precision, List<Shard> shards) throws IOException {
+        Path parent = manifest.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = manifest.resolveSibling(manifest.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            long rows = shards.isEmpty() ? 0 : shards.get(shards.size() - 1).rowEnd();
+            writer.write("{\"precision\":\"" + precision.descr() + "\",\"rows\":" + rows + ",\"shards\":[");
+            for (int i = 0; i < shards.size(); i++) {
+                Shard shard = shards.get(i);
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writer.write("\n{\"file\":\"" + MetadataWriter.escape(shard.file()) + "\""
+                    + ",\"metadata\":\"" + MetadataWriter.escape(shard.metadata()) + "\""
+                    + ",\"rowStart\":" + shard.rowStart()
+                    + ",\"rowEnd\":" + shard.rowEnd()
+                    + ",\"firstPath\":\"" + MetadataWriter.escape(shard.firstPath()) + "\""
+                    + ",\"lastPath\":\"" + MetadataWriter.escape(shard.lastPath()) + "\""
+                    + ",\"sha256\":\"" + shard.sha256() + "\""
+                    + ",\"sidecars\":[");
+                for (int j = 0; j < shard.sidecars().size(); j++) {
+                    Sidecar sidecar = shard.sidecars().get(j);
+                    writer.write((j > 0 ? "," : "") + "{\"file\":\"" + MetadataWriter.escape(sidecar.file()) + "\""
+                        + ",\"sha256\":\"" + sidecar.sha256() + "\"}");
+                }
+                writer.write("]}");
+            }
+            writer.write("\n]}\n");
+        }
+        Files.move(temp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static String sha256(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
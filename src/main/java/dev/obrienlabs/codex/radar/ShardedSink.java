@@ -0,0 +1,134 @@
+package dev.obrienlabs.codex.radar;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+final class ShardedSink implements EmbeddingSink {
+    private final Path output;
+    private final EmbeddingPrecision precision;
+    private final long maxRows;
+    private final long maxBytes;
+    private final List<ShardManifest.Shard> shards = new ArrayList<>();
+    private final QuantizationStats stats;
+    private final ArchiveCompressor archive;
+    private SingleFileSink current;
+    private long currentBytes;
+    private long rowCount;
+
+    // With an archive compressor, every shard also gets its own <shard base>.npc.
+    ShardedSink(Path output, EmbeddingPrecision precision, long maxRows, long maxBytes, ArchiveCompressor archive) {
+        if (maxRows <= 0 && maxBytes <= 0) {
+            throw new IllegalArgumentException("Sharding needs a positive row or byte limit.");
+        }
+        this.output = output;
+        this.precision = precision;
+        this.maxRows = maxRows;
+        this.maxBytes = maxBytes;
+        this.stats = precision == EmbeddingPrecision.F32 ? null : new QuantizationStats();
+        this.archive = archive;
+    }
+
+    @Override
+    public void write(List<Path> paths, List<FileFingerprint> fingerprints, List<TileGrid.Tile> tiles,
+                      List<float[]> embeddings) throws IOException {
+        for (int i = 0; i < paths.size(); i++) {
+            float[] row = embeddings.get(i);
+            long rowBytes = (long) row.length * precision.bytes();
+            if (current != null && (maxRows > 0 && current.rowCount() >= maxRows
+                || maxBytes > 0 && currentBytes + rowBytes > maxBytes)) {
+                closeShard();
+            }
+            if (current == null) {
+                current = new SingleFileSink(shardPath(shards.size()), precision, archive);
+                currentBytes = 0;
+            }
+            current.write(paths.subList(i, i + 1), fingerprints.subList(i, i + 1), tiles.subList(i, i + 1),
+                List.of(row));
+            currentBytes += rowBytes;
+            rowCount++;
+        }
+    }
+
+    @Override
+    public long rowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public QuantizationStats quantizationStats() {
+        return stats;
+    }
+
+    int shardCount() {
+        return shards.size();
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (current != null) {
+            closeShard();
+        }
+    }
+
+    // A shard still open here belongs to a failed run: its files are deleted and the manifest keeps only
+    // the shards completed before it.
+    @Override
+    public void close() throws IOException {
+        if (current == null) {
+            return;
+        }
+        SingleFileSink shard = current;
+        current = null;
+        try {
+            shard.close();
+        } finally {
+            Files.deleteIfExists(shard.output());
+            for (Path file : sidecars(shard.output())) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(PathIndex.logPath(PathIndex.pathFor(shard.output())));
+        }
+    }
+
+    private void closeShard() throws IOException {
+        SingleFileSink shard = current;
+        // A shard that fails to finish stays current, so close() deletes it.
+        shard.finish();
+        current = null;
+        shard.close();
+        if (stats != null) {
+            stats.merge(shard.quantizationStats());
+        }
+        long rowStart = shards.isEmpty() ? 0 : shards.get(shards.size() - 1).rowEnd();
+        List<ShardManifest.Sidecar> sidecars = new ArrayList<>();
+        for (Path file : sidecars(shard.output())) {
+            if (Files.exists(file)) {
+                sidecars.add(new ShardManifest.Sidecar(file.getFileName().toString(), ShardManifest.sha256(file)));
+            }
+        }
+        shards.add(new ShardManifest.Shard(shard.output().getFileName().toString(),
+            MetadataWriter.metadataPath(shard.output()).getFileName().toString(), rowStart,
+            rowStart + shard.rowCount(), shard.firstPath(), shard.lastPath(), ShardManifest.sha256(shard.output()),
+            sidecars));
+        // Rewritten after every shard so a failed run still lists each completed shard.
+        ShardManifest.write(ShardManifest.pathFor(output), precision, shards);
+    }
+
+    // Files that may be written beside a shard's .npy.
+    private static List<Path> sidecars(Path shard) {
+        return List.of(NpyWriter.scalesPath(shard), MetadataWriter.metadataPath(shard),
+            MetadataWriter.offsetsPath(shard), PathIndex.pathFor(shard), ChunkedArchive.pathFor(shard));
+    }
+
+    private Path shardPath(int index) {
+        String fileName = output.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        String base = dot == -1 ? fileName : fileName.substring(0, dot);
+        String extension = dot == -1 ? ".npy" : fileName.substring(dot);
+        return output.resolveSibling(String.format(Locale.ROOT, "%s-%05d%s", base, index, extension));
+    }
+}
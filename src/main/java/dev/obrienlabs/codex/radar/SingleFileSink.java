@@ -0,0 +1,135 @@
+package dev.obrienlabs.codex.radar;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+final class SingleFileSink implements EmbeddingSink {
+    private final Path output;
+    private final NpyWriter writer;
+    private final MetadataWriter metadata;
+    private final PathIndexWriter paths;
+    // A compressed copy of the rows in <base>.npc, or null when no archive was requested.
+    private final ChunkedArchiveWriter archive;
+
+    SingleFileSink(Path output, EmbeddingPrecision precision, ArchiveCompressor compressor) throws IOException {
+        this(output, NpyWriter.open(output, precision), MetadataWriter.open(output),
+            PathIndexWriter.create(PathIndex.pathFor(output)),
+            compressor == null ? null : compressor.open(output, precision));
+    }
+
+    private SingleFileSink(Path output, NpyWriter writer, MetadataWriter metadata, PathIndexWriter paths,
+                           ChunkedArchiveWriter archive) {
+        this.output = output;
+        this.writer = writer;
+        this.metadata = metadata;
+        this.paths = paths;
+        this.archive = archive;
+    }
+
+    // Appends to an existing output. The path index is the record of which rows are complete.
+    static SingleFileSink append(Path output, EmbeddingPrecision precision) throws IOException {
+        Path indexPath = PathIndex.pathFor(output);
+        if (!Files.exists(output)) {
+            return new SingleFileSink(output, precision, null);
+        }
+        if (!Files.exists(indexPath)) {
+            throw new IOException("Cannot append to " + output + ": path index " + indexPath + " is missing.");
+        }
+        PathIndexWriter paths = PathIndexWriter.append(indexPath);
+        NpyWriter writer = null;
+        try {
+            // Rows an interrupted run wrote past the last index update are dropped from both files.
+            writer = NpyWriter.append(output, precision, paths.rowCount());
+            MetadataWriter metadata = MetadataWriter.append(output, paths.rowCount());
+            return new SingleFileSink(output, writer, metadata, paths, null);
+        } catch (IOException e) {
+            try {
+                if (writer != null) {
+                    writer.close();
+                }
+            } finally {
+                paths.close();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void write(List<Path> batchPaths, List<FileFingerprint> fingerprints, List<TileGrid.Tile> tiles,
+                      List<float[]> embeddings) throws IOException {
+        writer.writeRows(embeddings);
+        if (archive != null) {
+            archive.writeRows(embeddings);
+        }
+        for (int i = 0; i < batchPaths.size(); i++) {
+            Path path = batchPaths.get(i);
+            metadata.write(path, fingerprints.get(i), tiles.get(i));
+            paths.add(path.toString());
+        }
+        if (paths.flushDue()) {
+            flush();
+        }
+    }
+
+    boolean contains(Path path) {
+        return paths.contains(path.toString());
+    }
+
+    // Rows and metadata go out before the paths naming them, so the index never covers a missing row.
+    void flush() throws IOException {
+        writer.flush();
+        metadata.flush();
+        paths.flush();
+    }
+
+    @Override
+    public long rowCount() {
+        return writer.rowCount();
+    }
+
+    @Override
+    public QuantizationStats quantizationStats() {
+        return writer.quantizationStats();
+    }
+
+    Path output() {
+        return output;
+    }
+
+    String firstPath() {
+        return paths.firstPath();
+    }
+
+    String lastPath() {
+        return paths.lastPath();
+    }
+
+    // Only the archive needs finishing; the .npy, .meta and .idx are complete up to their last flush.
+    @Override
+    public void finish() throws IOException {
+        if (archive != null) {
+            archive.finish();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            writer.close();
+        } finally {
+            try {
+                metadata.close();
+            } finally {
+                try {
+                    if (archive != null) {
+                        archive.close();
+                    }
+                } finally {
+                    paths.close();
+                }
+            }
+        }
+    }
+}
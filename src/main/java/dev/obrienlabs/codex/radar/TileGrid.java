@@ -0,0 +1,90 @@
+package dev.obrienlabs.codex.radar;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+// Splits large mosaics into fixed-size tiles and drops tiles without echo before they are preprocessed.
+// Radar colour tables are strongly chromatic while backgrounds, maps and borders are black, white or grey,
+// so a tile counts as empty when too few sampled pixels have any real colour.
+final class TileGrid {
+    static final Tile WHOLE_FRAME = new Tile(0, 0, 0, 0);
+    private static final int SAMPLE_STRIDE = 4;
+    private static final int MIN_CHROMA = 48;
+
+    private final int size;
+    private final double minEchoFraction;
+
+    TileGrid(int size, double minEchoFraction) {
+        if (size < 16) {
+            throw new IllegalArgumentException("Tile size must be at least 16 pixels: " + size);
+        }
+        if (minEchoFraction < 0 || minEchoFraction > 1) {
+            throw new IllegalArgumentException("Minimum echo fraction must be between 0 and 1: " + minEchoFraction);
+        }
+        this.size = size;
+        this.minEchoFraction = minEchoFraction;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Edge tiles are shifted inward rather than clipped, so every tile has the same footprint.
+    List<Tile> tiles(int width, int height) {
+        List<Tile> tiles = new ArrayList<>();
+        int tileWidth = Math.min(size, width);
+        int tileHeight = Math.min(size, height);
+        for (int y : starts(height, tileHeight)) {
+            for (int x : starts(width, tileWidth)) {
+                tiles.add(new Tile(x, y, tileWidth, tileHeight));
+            }
+        }
+        return tiles;
+    }
+
+    private static int[] starts(int extent, int tile) {
+        int count = (extent + tile - 1) / tile;
+        int[] starts = new int[count];
+        for (int i = 0; i < count; i++) {
+            starts[i] = Math.min(i * tile, extent - tile);
+        }
+        return starts;
+    }
+
+    boolean hasEcho(FusedPreprocessor.PixelReader reader, Tile tile) {
+        int samplesX = (tile.width() + SAMPLE_STRIDE - 1) / SAMPLE_STRIDE;
+        int samplesY = (tile.height() + SAMPLE_STRIDE - 1) / SAMPLE_STRIDE;
+        long needed = Math.max(1, (long) Math.ceil(minEchoFraction * samplesX * samplesY));
+        long echo = 0;
+        for (int y = tile.y(); y < tile.y() + tile.height(); y += SAMPLE_STRIDE) {
+            for (int x = tile.x(); x < tile.x() + tile.width(); x += SAMPLE_STRIDE) {
+                int rgb = reader.rgb(x, y);
+                int r = rgb >>> 16 & 0xff;
+                int g = rgb >>> 8 & 0xff;
+                int b = rgb & 0xff;
+                if (Math.max(r, Math.max(g, b)) - Math.min(r, Math.min(g, b)) >= MIN_CHROMA && ++echo >= needed) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    List<Tile> nonEmpty(BufferedImage image, List<Tile> tiles) {
+        FusedPreprocessor.PixelReader reader = FusedPreprocessor.PixelReader.of(image);
+        List<Tile> kept = new ArrayList<>(tiles.size());
+        for (Tile tile : tiles) {
+            if (hasEcho(reader, tile)) {
+                kept.add(tile);
+            }
+        }
+        return kept;
+    }
+
+    record Tile(int x, int y, int width, int height) {
+        boolean wholeFrame() {
+            return width == 0 && height == 0;
+        }
+    }
+}
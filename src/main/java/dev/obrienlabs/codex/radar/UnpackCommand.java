@@ -0,0 +1,119 @@
+package dev.obrienlabs.codex.radar;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+
+@Command(name = "unpack", mixinStandardHelpOptions = true,
+    description = "Restore an .npy, or a range of its rows, from a chunked archive written with --archive.")
+final class UnpackCommand implements Callable<Integer> {
+
+    @Parameters(index = "0", description = "Archive (.npc) written by radar-embed --archive.")
+    private Path archive;
+
+    @Option(names = "--output", description = "The .npy file to write (default: the archive's name with .npy, "
+        + "beside its metadata).")
+    private Path output;
+
+    @Option(names = "--rows", description = "Only rows from:to (end exclusive; either side may be omitted). "
+        + "Only the chunks holding them are read and inflated.")
+    private String rows;
+
+    @Option(names = "--force", description = "Overwrite existing output files.")
+    private boolean force;
+
+    @Override
+    public Integer call() throws Exception {
+        if (rows != null && output == null) {
+            throw new IllegalArgumentException("--rows needs --output, so a partial unpack never replaces the "
+                + "full .npy beside the archive.");
+        }
+        Path target = output != null ? output : archive.resolveSibling(stripExtension(archive) + ".npy");
+        long start = System.nanoTime();
+        try (ChunkedArchive source = ChunkedArchive.open(archive)) {
+            long from = 0;
+            long to = source.rowCount();
+            if (rows != null) {
+                int colon = rows.indexOf(':');
+                try {
+                    if (colon == -1) {
+                        throw new NumberFormatException();
+                    }
+                    String first = rows.substring(0, colon).trim();
+                    String last = rows.substring(colon + 1).trim();
+                    from = first.isEmpty() ? 0 : Long.parseLong(first);
+                    to = last.isEmpty() ? source.rowCount() : Long.parseLong(last);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("--rows must be from:to, e.g. 1000:2000: " + rows);
+                }
+                if (from < 0 || from > to || to > source.rowCount()) {
+                    throw new IllegalArgumentException("--rows " + rows + " is outside the archive's "
+                        + source.rowCount() + " rows.");
+                }
+            }
+            Path parent = target.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            boolean int8 = source.precision() == EmbeddingPrecision.INT8;
+            for (Path existing : int8 ? List.of(target, NpyWriter.scalesPath(target)) : List.of(target)) {
+                if (!force && Files.exists(existing)) {
+                    throw new IllegalArgumentException(existing + " already exists; pass --force to overwrite it.");
+                }
+            }
+            try (FileChannel matrix = create(target);
+                 FileChannel scales = int8 ? create(NpyWriter.scalesPath(target)) : null) {
+                NpyWriter.writeHeader(matrix, source.precision().descr(), to - from, source.dimension());
+                matrix.position(NpyWriter.HEADER_SIZE);
+                if (scales != null) {
+                    NpyWriter.writeHeader(scales, EmbeddingPrecision.F32.descr(), to - from);
+                    scales.position(NpyWriter.HEADER_SIZE);
+                }
+                // Stored bytes are copied as they are, so a full unpack matches the original .npy exactly.
+                long row = from;
+                while (row < to) {
+                    int index = source.chunkOf(row);
+                    long chunkStart = (long) index * source.chunkRows();
+                    ChunkedArchive.Chunk chunk = source.chunk(index);
+                    int first = (int) (row - chunkStart);
+                    int last = (int) Math.min(chunk.rows(), to - chunkStart);
+                    write(matrix, chunk.rowBytes(first, last));
+                    if (scales != null) {
+                        write(scales, chunk.scaleBytes(first, last));
+                    }
+                    row = chunkStart + last;
+                }
+            }
+            System.out.printf(Locale.ROOT, "Unpacked rows %d to %d of %d into %s in %.2f s%n", from, to,
+                source.rowCount(), target, (System.nanoTime() - start) / 1e9);
+        }
+        return 0;
+    }
+
+    private static String stripExtension(Path path) {
+        String fileName = path.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        return dot == -1 ? fileName : fileName.substring(0, dot);
+    }
+
+    private static FileChannel create(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE);
+    }
+
+    private static void write(FileChannel channel, ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package dev.obrienlabs.codex.radar;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+// One of `count` cooperating processes, identified by a 0-based index. Each file belongs to exactly one
+// worker, chosen by a stable hash of its path relative to the input root, so workers agree without
+// coordinating even when the archive is mounted at different locations.
+record WorkPartition(int index, int count) {
+    WorkPartition {
+        if (count < 1 || index < 0 || index >= count) {
+            throw new IllegalArgumentException("Shard must be i/n with 0 <= i < n: " + index + "/" + count);
+        }
+    }
+
+    static WorkPartition parse(String value) {
+        int slash = value.indexOf('/');
+        try {
+            if (slash > 0) {
+                return new WorkPartition(Integer.parseInt(value.substring(0, slash).trim()),
+                    Integer.parseInt(value.substring(slash + 1).trim()));
+            }
+        } catch (NumberFormatException e) {
+            // Reported below.
+        }
+        throw new IllegalArgumentException("--shard must be i/n, e.g. 0/4: " + value);
+    }
+
+    boolean owns(Path root, Path file) {
+        if (count == 1) {
+            return true;
+        }
+        Path relative = file.startsWith(root) && !file.equals(root) ? root.relativize(file) : file.getFileName();
+        String key = relative.toString().replace('\\', '/');
+        return Long.remainderUnsigned(mix(PathIndex.hash(key.getBytes(StandardCharsets.UTF_8))), count) == index;
+    }
+
+    // FNV-1a leaves the low bits weakly mixed; the MurmurHash3 finalizer spreads them before the modulo.
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ hash >>> 33;
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count;
+    }
+}